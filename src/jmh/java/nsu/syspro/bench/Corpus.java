@@ -0,0 +1,102 @@
+package nsu.syspro.bench;
+
+/**
+ * Generated SysPro sources that stress one part of the lexer or parser each.
+ * The same size always gives the same text, so results stay comparable between runs.
+ */
+public enum Corpus {
+
+    /**
+     * Many small classes with a few members each, close to ordinary code.
+     */
+    SMALL_CLASSES {
+        @Override
+        void append(StringBuilder out, int index) {
+            out.append("class Point").append(index).append("<T <: Comparable<T>, U>\n")
+                    .append("    var x: Int64\n")
+                    .append("    var y: ?T\n")
+                    .append("    def move(dx: Int64, dy: Int64): Unit\n")
+                    .append("        x = x + dx\n")
+                    .append("        if y is T t\n")
+                    .append("            return t.compare(dy) < 0\n")
+                    .append("    # distance to the origin\n")
+                    .append("    def length(): Int64\n")
+                    .append("        return x * x + 1u32\n\n");
+        }
+    },
+
+    /**
+     * Identifiers of a few hundred code points.
+     */
+    LONG_IDENTIFIERS {
+        @Override
+        void append(StringBuilder out, int index) {
+            String name = "identifier_" + index + "_" + "abcdefghijklmnopqrstuvwxyz".repeat(10);
+            out.append("object ").append(name).append('\n')
+                    .append("    var ").append(name).append("_value: ").append(name).append('\n')
+                    .append("    def ").append(name).append("(argument: ").append(name).append("): ").append(name).append('\n')
+                    .append("        return ").append(name).append('.').append(name).append("(argument)\n\n");
+        }
+    },
+
+    /**
+     * String literals of tens of thousands of code points.
+     */
+    HUGE_STRINGS {
+        @Override
+        void append(StringBuilder out, int index) {
+            out.append("object Text").append(index).append('\n')
+                    .append("    def text(): String\n")
+                    .append("        return \"")
+                    .append("Lorem ipsum dolor sit amet, \\\"consectetur\\\" adipiscing elit \\U+1F600 ".repeat(500))
+                    .append("\"\n\n");
+        }
+    },
+
+    /**
+     * Statements nested a few dozen levels deep, with an indent and a dedent for each level.
+     */
+    DEEP_INDENTATION {
+        @Override
+        void append(StringBuilder out, int index) {
+            int depth = 32;
+            out.append("class Nested").append(index).append('\n')
+                    .append("    def f(x: Int64): Int64\n");
+            for (int level = 0; level < depth; level++) {
+                out.append("    ".repeat(level + 2)).append("if x < ").append(level).append('\n');
+            }
+            out.append("    ".repeat(depth + 2)).append("x = x - 1\n")
+                    .append("        return x\n\n");
+        }
+    },
+
+    /**
+     * Long chains of binary operators of mixed precedence.
+     */
+    BINARY_CHAINS {
+        @Override
+        void append(StringBuilder out, int index) {
+            String[] operators = {" + ", " * ", " - ", " / ", " && ", " || ", " < ", " == ", " << ", " % "};
+            out.append("object Chain").append(index).append('\n')
+                    .append("    def f(a: Int64, b: Int64): Int64\n")
+                    .append("        return a");
+            for (int i = 0; i < 1000; i++) {
+                out.append(operators[i % operators.length]).append(i % 3 == 0 ? "b" : Integer.toString(i));
+            }
+            out.append("\n\n");
+        }
+    };
+
+    abstract void append(StringBuilder out, int index);
+
+    /**
+     * @return a source of about {@code size} characters
+     */
+    public String generate(int size) {
+        StringBuilder out = new StringBuilder(size + 1024);
+        for (int index = 0; out.length() < size; index++) {
+            append(out, index);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package nsu.syspro.bench;
+
+import nsu.syspro.lexer.CodePointBuffer;
+import nsu.syspro.lexer.MyLexer;
+import nsu.syspro.lexer.Recognizer;
+import nsu.syspro.lexer.TokenBuffer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.Token;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing throughput over the generated corpora. The {@code tokens} counter gives tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LexerBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"1000000"})
+    public int size;
+
+    private final MyLexer lexer = new MyLexer();
+    private String text;
+    private CodePointBuffer codePoints;
+    // Inclusive start and end of each real token, without trivia
+    private int[] spans;
+
+    @Setup
+    public void setup() {
+        text = corpus.generate(size);
+        codePoints = CodePointBuffer.of(text);
+        List<Token> tokens = lexer.lex(text);
+        spans = new int[tokens.size() * 2];
+        int count = 0;
+        for (Token token : tokens) {
+            if (token instanceof IndentationToken) continue;
+            spans[count++] = token.start + token.leadingTriviaLength;
+            spans[count++] = token.end - token.trailingTriviaLength;
+        }
+        spans = Arrays.copyOf(spans, count);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public List<Token> lex(Counters counters) {
+        List<Token> tokens = lexer.lex(text);
+        counters.tokens += tokens.size();
+        return tokens;
+    }
+
+    @Benchmark
+    public TokenBuffer lexToBuffer(Counters counters) {
+        TokenBuffer tokens = lexer.lexToBuffer(text);
+        counters.tokens += tokens.size();
+        return tokens;
+    }
+
+    /**
+     * Only the recognition of tokens whose bounds are already known, without trivia and indentation.
+     */
+    @Benchmark
+    public TokenBuffer recognize(Counters counters) {
+        TokenBuffer tokens = new TokenBuffer();
+        for (int i = 0; i < spans.length; i += 2) {
+            Recognizer.recognize(spans[i], spans[i + 1], codePoints, tokens);
+        }
+        counters.tokens += tokens.size();
+        return tokens;
+    }
+}
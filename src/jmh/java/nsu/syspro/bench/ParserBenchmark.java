@@ -0,0 +1,83 @@
+package nsu.syspro.bench;
+
+import nsu.syspro.parser.MyParseResult;
+import nsu.syspro.parser.MyParser;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexing and parsing throughput over the generated corpora. The {@code nodes} counter gives nodes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"1000000"})
+    public int size;
+
+    @Param
+    public MyParser.Engine engine;
+
+    @Param({"false", "true"})
+    public boolean buildSyntaxTreeDirectly;
+
+    private MyParser parser;
+    private String text;
+    private long nodes;
+
+    @Setup
+    public void setup() {
+        parser = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, buildSyntaxTreeDirectly);
+        text = corpus.generate(size);
+        nodes = countNodes(parser.parse(text).root());
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Benchmark
+    public MyParseResult parse(Counters counters) {
+        MyParseResult result = parser.parse(text);
+        counters.nodes += nodes;
+        return result;
+    }
+
+    private static long countNodes(SyntaxNode root) {
+        long count = 0;
+        ArrayDeque<SyntaxNode> pending = new ArrayDeque<>();
+        if (root != null) pending.push(root);
+        while (!pending.isEmpty()) {
+            SyntaxNode node = pending.pop();
+            count++;
+            for (int i = 0; i < node.slotCount(); i++) {
+                SyntaxNode child = node.slot(i);
+                if (child != null) pending.push(child);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,31 @@
+package nsu.syspro.lexer;
+
+/**
+ * {@link CodePointSource} over a primitive array, 4 bytes per code point and no boxing on access.
+ */
+public record CodePointBuffer(int[] codePoints) implements CodePointSource {
+
+    public static CodePointBuffer of(String text) {
+        return new CodePointBuffer(text.codePoints().toArray());
+    }
+
+    public CodePointBuffer apply(TextEdit edit) {
+        int[] inserted = edit.insertedText().codePoints().toArray();
+        int tail = codePoints.length - edit.offset() - edit.removedLength();
+        int[] result = new int[edit.offset() + inserted.length + tail];
+        System.arraycopy(codePoints, 0, result, 0, edit.offset());
+        System.arraycopy(inserted, 0, result, edit.offset(), inserted.length);
+        System.arraycopy(codePoints, edit.offset() + edit.removedLength(), result, edit.offset() + inserted.length, tail);
+        return new CodePointBuffer(result);
+    }
+
+    @Override
+    public int get(int index) {
+        return codePoints[index];
+    }
+
+    @Override
+    public int size() {
+        return codePoints.length;
+    }
+}
@@ -0,0 +1,30 @@
+package nsu.syspro.lexer;
+
+/**
+ * Random access view over the source text in code point coordinates,
+ * the same coordinates {@link syspro.tm.lexer.Token#start} and {@link syspro.tm.lexer.Token#end} use.
+ */
+public interface CodePointSource {
+
+    int get(int index);
+
+    /**
+     * Number of code points available so far. Equals the text length for fully materialised sources.
+     */
+    int size();
+
+    /**
+     * Makes sure the text from {@code from} up to the end of the first line with a non-trivia code point
+     * (or up to the end of input) is available, and returns the index of the last available code point.
+     * Everything a single lexer step looks at lies in that range.
+     */
+    default int load(int from) {
+        return size() - 1;
+    }
+
+    /**
+     * Code points before {@code index} will not be accessed anymore and may be dropped.
+     */
+    default void release(int index) {
+    }
+}
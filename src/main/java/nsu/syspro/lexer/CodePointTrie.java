@@ -0,0 +1,77 @@
+package nsu.syspro.lexer;
+
+import java.util.Arrays;
+
+/**
+ * Trie over ASCII keys with a flat transition table, so lookups cost one array read per code point
+ * and never allocate. Filled once during class initialization and read-only afterwards.
+ */
+public class CodePointTrie<E> {
+
+    private static final int ALPHABET_SIZE = 128;
+
+    // transitions[node * ALPHABET_SIZE + codePoint] is the child node, 0 (root) means no transition
+    private int[] transitions = new int[ALPHABET_SIZE];
+    private Object[] values = new Object[1];
+    private int nodeCount = 1;
+
+    public void put(String key, E value) {
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            int codePoint = key.charAt(i);
+            if (codePoint >= ALPHABET_SIZE) {
+                throw new IllegalArgumentException("Non-ASCII key: " + key);
+            }
+            int index = node * ALPHABET_SIZE + codePoint;
+            if (transitions[index] == 0) {
+                // addNode may reallocate the table, so it must run before the store
+                int child = addNode();
+                transitions[index] = child;
+            }
+            node = transitions[index];
+        }
+        values[node] = value;
+    }
+
+    /**
+     * Value stored for the key that exactly matches the code points in [start, end], or {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int start, int end, CodePointSource codePoints) {
+        int node = 0;
+        for (int pos = start; pos <= end; pos++) {
+            node = next(node, codePoints.get(pos));
+            if (node == 0) return null;
+        }
+        return (E) values[node];
+    }
+
+    /**
+     * Length of the longest key that is a prefix of the code points in [start, border], or 0.
+     */
+    public int getLongestMatchLength(int start, int border, CodePointSource codePoints) {
+        int node = 0;
+        int length = 0;
+        for (int pos = start; pos <= border; pos++) {
+            node = next(node, codePoints.get(pos));
+            if (node == 0) break;
+            if (values[node] != null) {
+                length = pos - start + 1;
+            }
+        }
+        return length;
+    }
+
+    private int next(int node, int codePoint) {
+        if (codePoint < 0 || codePoint >= ALPHABET_SIZE) return 0;
+        return transitions[node * ALPHABET_SIZE + codePoint];
+    }
+
+    private int addNode() {
+        if (nodeCount == values.length) {
+            values = Arrays.copyOf(values, nodeCount * 2);
+            transitions = Arrays.copyOf(transitions, nodeCount * 2 * ALPHABET_SIZE);
+        }
+        return nodeCount++;
+    }
+}
@@ -0,0 +1,29 @@
+package nsu.syspro.lexer;
+
+/**
+ * View of a {@link CodePointSource} with a {@link TextEdit} applied, without copying the text.
+ */
+public record EditedCodePointSource(CodePointSource base, int offset, int removedLength, int[] inserted)
+        implements CodePointSource {
+
+    public static EditedCodePointSource of(CodePointSource base, TextEdit edit) {
+        int[] inserted = edit.insertedText().codePoints().toArray();
+        return new EditedCodePointSource(base, edit.offset(), edit.removedLength(), inserted);
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < offset) {
+            return base.get(index);
+        }
+        if (index < offset + inserted.length) {
+            return inserted[index - offset];
+        }
+        return base.get(index - inserted.length + removedLength);
+    }
+
+    @Override
+    public int size() {
+        return base.size() - removedLength + inserted.length;
+    }
+}
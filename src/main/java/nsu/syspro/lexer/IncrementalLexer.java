@@ -0,0 +1,146 @@
+package nsu.syspro.lexer;
+
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static nsu.syspro.lexer.Recognizer.getNewLineLength;
+import static nsu.syspro.lexer.Recognizer.getWhitespacesLength;
+
+/**
+ * Updates the tokens of a text after a {@link TextEdit} by relexing only the region around it.
+ * <p>
+ * A token depends on nothing past the end of its line, while the line break after the last token of a line
+ * looks into the indentation of the next one. So lexing restarts at the last real token that starts on a line
+ * before the edited one, with the indentation state recomputed from the old tokens. Once the relexed stream
+ * reaches the start of an old token past the edit with the same indentation state, the rest of the old tokens
+ * are reused with shifted offsets.
+ */
+public final class IncrementalLexer {
+
+    private IncrementalLexer() {
+    }
+
+    /**
+     * Tokens of the edited text, together with how many of the old tokens were carried over:
+     * the first {@code reusedPrefix} tokens are the old ones as is, the last {@code reusedSuffix}
+     * tokens are the last old ones shifted by the length change of the edit.
+     */
+    public record Result(List<Token> tokens, int reusedPrefix, int reusedSuffix) {
+    }
+
+    /**
+     * @param previousText   the text before the edit
+     * @param previousTokens the tokens of {@code previousText}
+     * @return the tokens of the edited text, same as lexing it from scratch
+     */
+    public static List<Token> relex(CodePointSource previousText, List<Token> previousTokens, TextEdit edit) {
+        return relexWithReuse(previousText, previousTokens, edit).tokens();
+    }
+
+    /**
+     * Same as {@link #relex}, but also tells which tokens are unchanged.
+     */
+    public static Result relexWithReuse(CodePointSource previousText, List<Token> previousTokens, TextEdit edit) {
+        EditedCodePointSource text = EditedCodePointSource.of(previousText, edit);
+        if (countRealTokens(previousTokens) <= 1) {
+            // Nothing worth reusing, and a placeholder token cannot be told from a real one
+            return new Result(new TokenStream(text).toList(), 0, 0);
+        }
+
+        int delta = text.inserted().length - edit.removedLength();
+        int damageEnd = edit.offset() + text.inserted().length;
+
+        int lineStart = edit.offset();
+        while (lineStart > 0 && previousText.get(lineStart - 1) != '\n') {
+            lineStart--;
+        }
+
+        // Indentation state before previousTokens[index], kept in sync while walking the old tokens
+        int index = 0, level = 0, length = -1;
+        int restartIndex = -1, restartLevel = 0, restartLength = -1;
+        int firstRealIndex = -1;
+        for (; index < previousTokens.size(); index++) {
+            Token token = previousTokens.get(index);
+            if (token instanceof IndentationToken indentation) {
+                length = nextIndentationLength(previousText, indentation, level, length);
+                level += indentation.difference;
+                continue;
+            }
+            // The first real token owns the trivia before it, so lexing cannot start or resume there
+            boolean first = firstRealIndex == -1;
+            if (first) firstRealIndex = index;
+            if (token.start + token.leadingTriviaLength >= lineStart) break;
+            if (!first) {
+                restartIndex = index;
+                restartLevel = level;
+                restartLength = length;
+            }
+        }
+
+        List<Token> result = new ArrayList<>(previousTokens.size() + 16);
+        TokenStream stream;
+        if (restartIndex == -1) {
+            stream = new TokenStream(text);
+            index = 0;
+            level = 0;
+            length = -1;
+        } else {
+            result.addAll(previousTokens.subList(0, restartIndex));
+            stream = new TokenStream(text, previousTokens.get(restartIndex).start, restartLevel, restartLength);
+            index = restartIndex;
+            level = restartLevel;
+            length = restartLength;
+        }
+
+        while (!stream.isFinished()) {
+            int position = stream.position();
+            if (position >= damageEnd && !stream.isPlaceholderPending()) {
+                for (; index < previousTokens.size(); index++) {
+                    Token token = previousTokens.get(index);
+                    if (token instanceof IndentationToken indentation) {
+                        length = nextIndentationLength(previousText, indentation, level, length);
+                        level += indentation.difference;
+                    } else if (token.start + delta >= position) {
+                        break;
+                    }
+                }
+                if (index < previousTokens.size() && index != firstRealIndex
+                        && previousTokens.get(index).start + delta == position
+                        && level == stream.indentationLevel() && length == stream.indentationLength()) {
+                    result.addAll(stream.drain());
+                    int reusedSuffix = previousTokens.size() - index;
+                    for (; index < previousTokens.size(); index++) {
+                        Token token = previousTokens.get(index);
+                        result.add(token.withStart(token.start + delta).withEnd(token.end + delta));
+                    }
+                    return new Result(result, Math.max(restartIndex, 0), reusedSuffix);
+                }
+            }
+            stream.step();
+        }
+        result.addAll(stream.drain());
+        return new Result(result, Math.max(restartIndex, 0), 0);
+    }
+
+    private static int countRealTokens(List<Token> tokens) {
+        int count = 0;
+        for (Token token : tokens) {
+            if (!(token instanceof IndentationToken) && ++count > 1) break;
+        }
+        return count;
+    }
+
+    // Indentation length after the token: it is taken from the line that opens the first level
+    // and dropped when the last level is closed
+    private static int nextIndentationLength(CodePointSource text, IndentationToken token, int level, int length) {
+        if (level == 0 && token.difference > 0) {
+            int border = text.size() - 1;
+            int lineStart = token.start + getNewLineLength(token.start, border, text);
+            return getWhitespacesLength(lineStart, border, text);
+        }
+        return level + token.difference == 0 ? -1 : length;
+    }
+}
@@ -0,0 +1,118 @@
+package nsu.syspro.lexer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link CodePointSource} over UTF-8 bytes, typically a memory-mapped file.
+ * Code points are decoded on access, without materialising the text.
+ * <p>
+ * Pure ASCII input is detected up front and then read byte by byte, since byte offsets and code point
+ * indices coincide. Otherwise a cursor remembers the last decoded position: the lexer only moves a few
+ * code points back and forth around it, so each access costs a handful of byte reads.
+ * <p>
+ * Decoding is lenient: a code point starts at every byte that is not a UTF-8 continuation byte,
+ * and a malformed sequence decodes to U+FFFD.
+ */
+public class MappedCodePointSource implements CodePointSource {
+
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+    private final ByteBuffer bytes;
+    private final int size;
+    private final boolean ascii;
+
+    private int cursorIndex = 0;
+    private int cursorOffset = 0;
+
+    public MappedCodePointSource(ByteBuffer bytes) {
+        this.bytes = bytes;
+
+        int size = 0;
+        boolean ascii = true;
+        for (int offset = 0; offset < bytes.limit(); offset++) {
+            byte current = bytes.get(offset);
+            if (offset == 0 || !isContinuation(current)) {
+                size++;
+            }
+            ascii &= current >= 0;
+        }
+        this.size = size;
+        this.ascii = ascii;
+    }
+
+    public static MappedCodePointSource map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            // Token offsets are ints, so larger inputs can't be lexed anyway
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to lex: " + path);
+            }
+            return new MappedCodePointSource(channel.map(FileChannel.MapMode.READ_ONLY, 0, length));
+        }
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (ascii) {
+            return bytes.get(index);
+        }
+
+        while (cursorIndex < index) {
+            cursorOffset = getNextOffset(cursorOffset);
+            cursorIndex++;
+        }
+        while (cursorIndex > index) {
+            cursorOffset = getPreviousOffset(cursorOffset);
+            cursorIndex--;
+        }
+        return decode(cursorOffset);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int decode(int offset) {
+        int lead = bytes.get(offset) & 0xFF;
+        if (lead < 0x80) return lead;
+
+        int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : 2;
+        if (lead < 0xC0 || lead >= 0xF8 || getNextOffset(offset) - offset != length) {
+            return REPLACEMENT_CHARACTER;
+        }
+
+        int codePoint = lead & (0xFF >> (length + 1));
+        for (int i = offset + 1; i < offset + length; i++) {
+            codePoint = codePoint << 6 | bytes.get(i) & 0x3F;
+        }
+        return codePoint <= Character.MAX_CODE_POINT ? codePoint : REPLACEMENT_CHARACTER;
+    }
+
+    private int getNextOffset(int offset) {
+        offset++;
+        while (offset < bytes.limit() && isContinuation(bytes.get(offset))) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private int getPreviousOffset(int offset) {
+        offset--;
+        while (offset > 0 && isContinuation(bytes.get(offset))) {
+            offset--;
+        }
+        return offset;
+    }
+
+    private static boolean isContinuation(byte value) {
+        return (value & 0xC0) == 0x80;
+    }
+}
@@ -3,24 +3,49 @@ package nsu.syspro.lexer;
 import syspro.tm.lexer.Keyword;
 import syspro.tm.lexer.Symbol;
 
-import java.util.ArrayList;
 
 public class Matchers {
 
-    public static boolean isKeyword(String word) {
+    private static final CodePointTrie<Keyword> keywords = new CodePointTrie<>();
+    private static final CodePointTrie<Symbol> symbols = new CodePointTrie<>();
+    private static final CodePointTrie<Boolean> booleans = new CodePointTrie<>();
+
+    static {
         for (Keyword keyword : Keyword.values()) {
-            int[] codePoints = keyword.text.codePoints().toArray();
-            String checkedKeyword = new String(codePoints, 0, codePoints.length);
-            if (checkedKeyword.equals(word)) return true;
+            keywords.put(keyword.text, keyword);
+        }
+        for (Symbol symbol : Symbol.values()) {
+            symbols.put(symbol.text, symbol);
         }
-        return false;
+        booleans.put("true", true);
+        booleans.put("false", false);
+    }
+
+    public static Keyword getKeyword(int start, int end, CodePointSource codePoints) {
+        return keywords.get(start, end, codePoints);
+    }
+
+    public static Symbol getSymbol(int start, int end, CodePointSource codePoints) {
+        return symbols.get(start, end, codePoints);
     }
 
-    public static boolean isBooleanLiteral(String word) {
-        return word.equals("true") || word.equals("false");
+    public static int getLongestSymbolLength(int start, int border, CodePointSource codePoints) {
+        return symbols.getLongestMatchLength(start, border, codePoints);
     }
 
-    public static boolean isCorrectIndentation(int pos, int length, ArrayList<Integer> codePoints) {
+    public static Boolean getBooleanLiteral(int start, int end, CodePointSource codePoints) {
+        return booleans.get(start, end, codePoints);
+    }
+
+    public static boolean isIdentifier(int start, int end, CodePointSource codePoints) {
+        if (end < start || !Character.isJavaIdentifierStart(codePoints.get(start))) return false;
+        for (int pos = start + 1; pos <= end; pos++) {
+            if (!Character.isJavaIdentifierPart(codePoints.get(pos))) return false;
+        }
+        return true;
+    }
+
+    public static boolean isCorrectIndentation(int pos, int length, CodePointSource codePoints) {
         int spacesLength = 0;
         for (int i = 0; i < length; i++) {
             int currentCodePoint = codePoints.get(pos + i);
@@ -31,37 +56,74 @@ public class Matchers {
         return spacesLength % 2 == 0;
     }
 
-    public static boolean isIntegerLiteral(String word) {
-        return word.matches("[0-9]+(i32|i64|u32|u64)?");
+    public static boolean isIntegerLiteral(int start, int end, CodePointSource codePoints) {
+        // [0-9]+(i32|i64|u32|u64)?
+        int digitsEnd = hasIntegerTypeSuffix(start, end, codePoints) ? end - 3 : end;
+        if (digitsEnd < start) return false;
+        for (int pos = start; pos <= digitsEnd; pos++) {
+            if (!isDigit(codePoints.get(pos))) return false;
+        }
+        return true;
     }
 
-    public static boolean isRuneLiteral(String word) {
-        String SIMPLE_RUNE_CHARACTER = "[^'\r\n]";
-        String SHORT_ESCAPE = "\\\\[0abrnvt'\"\\\\]";
-        String UNICODE_ESCAPE = "\\\\U\\+[0-9A-F]{4,5}";
-        String ESCAPE = "(" + SHORT_ESCAPE + "|" + UNICODE_ESCAPE + ")";
-        String RUNE_CHARACTER = "(" + SIMPLE_RUNE_CHARACTER + "|" + ESCAPE + ")";
-        String RUNE = "'" + RUNE_CHARACTER + "'";
-        return word.matches(RUNE);
+    public static boolean hasIntegerTypeSuffix(int start, int end, CodePointSource codePoints) {
+        if (end - start + 1 < 3) return false;
+        int sign = codePoints.get(end - 2);
+        int high = codePoints.get(end - 1);
+        int low = codePoints.get(end);
+        return (sign == 'i' || sign == 'u') && (high == '3' && low == '2' || high == '6' && low == '4');
     }
 
+    public static boolean isRuneLiteral(int start, int end, CodePointSource codePoints) {
+        // '([^'\r\n]|\\[0abrnvt'"\\]|\\U\+[0-9A-F]{4,5})'
+        return end - start >= 2 &&
+                codePoints.get(start) == '\'' && codePoints.get(end) == '\'' &&
+                isRuneCharacter(start + 1, end - 1, codePoints);
+    }
 
-    public static boolean isStringLiteral(String word) {
-        String SIMPLE_STRING_CHARACTER = "[^\"\r\n]";
-        String SHORT_ESCAPE = "\\\\[0abnrtv'\"\\\\]";
-        String UNICODE_ESCAPE = "\\\\U\\+[0-9A-F]{4,5}";
-        String ESCAPE = "(" + SHORT_ESCAPE + "|" + UNICODE_ESCAPE + ")";
-        String STRING_CHARACTER = "(" + SIMPLE_STRING_CHARACTER + "|" + ESCAPE + ")";
-        String STRING = "\"" + STRING_CHARACTER + "*\"";
-        return word.matches(STRING);
+    private static boolean isRuneCharacter(int start, int end, CodePointSource codePoints) {
+        int length = end - start + 1;
+        int first = codePoints.get(start);
+        if (length == 1) {
+            return first != '\'' && first != '\r' && first != '\n';
+        }
+        if (first != '\\') return false;
+        if (length == 2) {
+            return isShortEscape(codePoints.get(end));
+        }
+        if (length != 7 && length != 8) return false;
+        if (codePoints.get(start + 1) != 'U' || codePoints.get(start + 2) != '+') return false;
+        for (int pos = start + 3; pos <= end; pos++) {
+            if (!isUpperHexDigit(codePoints.get(pos))) return false;
+        }
+        return true;
     }
 
-    public static boolean isSymbol(String word) {
-        for (Symbol symbol : Symbol.values()) {
-            if (symbol.text.equals(word)) {
-                return true;
-            }
+    public static boolean isStringLiteral(int start, int end, CodePointSource codePoints) {
+        // "([^"\r\n]|\\[0abnrtv'"\\]|\\U\+[0-9A-F]{4,5})*"
+        // Backslash is a valid simple string character itself, so the only escape that matters
+        // is '\"': the content is valid as long as every '"' in it is preceded by '\\'
+        if (end - start < 1 || codePoints.get(start) != '"' || codePoints.get(end) != '"') return false;
+        for (int pos = start + 1; pos < end; pos++) {
+            int current = codePoints.get(pos);
+            if (current == '\r' || current == '\n') return false;
+            if (current == '"' && codePoints.get(pos - 1) != '\\') return false;
         }
-        return false;
+        return true;
+    }
+
+    public static boolean isDigit(int codePoint) {
+        return codePoint >= '0' && codePoint <= '9';
+    }
+
+    private static boolean isUpperHexDigit(int codePoint) {
+        return isDigit(codePoint) || codePoint >= 'A' && codePoint <= 'F';
+    }
+
+    private static boolean isShortEscape(int codePoint) {
+        return switch (codePoint) {
+            case '0', 'a', 'b', 'r', 'n', 'v', 't', '\'', '"', '\\' -> true;
+            default -> false;
+        };
     }
 }
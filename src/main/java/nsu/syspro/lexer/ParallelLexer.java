@@ -0,0 +1,222 @@
+package nsu.syspro.lexer;
+
+import syspro.tm.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static nsu.syspro.lexer.Recognizer.getCommentsLength;
+import static nsu.syspro.lexer.Recognizer.getNewLineLength;
+import static nsu.syspro.lexer.Recognizer.getWhitespacesLength;
+
+/**
+ * Lexes a large text in chunks on a pool, producing the same tokens as {@link MyLexer#lex(String)}.
+ * <p>
+ * Chunks start at lines with a real token, where lexing can resume as {@link IncrementalLexer} does:
+ * the line break before such a line ends the trivia of the previous chunk, and the token owns the rest.
+ * Only the indentation state at the start of a chunk is unknown, so it is guessed. A line without
+ * indentation always resets it, which is why chunks preferably start there and the guess is then exact.
+ * <p>
+ * The chunks are then joined in order. The state the previous chunk ended with is the true one,
+ * and if the guess was different, the start of the chunk is lexed again with it until both agree
+ * at some line, at the latest at the first line without indentation.
+ */
+public final class ParallelLexer {
+
+    // Chunks per thread of the pool, more of them balance uneven lines better
+    private static final int CHUNKS_PER_THREAD = 4;
+    // Code points below which a chunk is not worth a task of its own
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private ParallelLexer() {
+    }
+
+    public static List<Token> lex(CodePointBuffer text, ForkJoinPool pool) {
+        // With a single thread the chunks would only be lexed one after another, and joined on top of that
+        if (pool.getParallelism() == 1) {
+            return new TokenStream(text).toList();
+        }
+        return lex(text, cuts(text, pool.getParallelism() * CHUNKS_PER_THREAD), pool);
+    }
+
+    /**
+     * Lexes the chunks starting at {@code cuts}, which are 0 and then lines after that of the first real token
+     * for which {@link #isResumable} holds, in increasing order.
+     */
+    static List<Token> lex(CodePointBuffer text, List<Integer> cuts, ForkJoinPool pool) {
+        if (cuts.size() == 1) {
+            return new TokenStream(text).toList();
+        }
+
+        List<Callable<Chunk>> tasks = new ArrayList<>(cuts.size());
+        for (int i = 0; i < cuts.size(); i++) {
+            int start = cuts.get(i);
+            int end = i + 1 < cuts.size() ? cuts.get(i + 1) : -1;
+            tasks.add(() -> lexChunk(text, start, end));
+        }
+
+        List<Chunk> chunks = new ArrayList<>(cuts.size());
+        for (Future<Chunk> future : pool.invokeAll(tasks)) {
+            try {
+                chunks.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return join(text, cuts, chunks);
+    }
+
+    /**
+     * Tokens of a chunk lexed from a guessed state, with the states it passed through at the starts of lines
+     * up to the first one without indentation, and the state it ended with.
+     */
+    private record Chunk(List<Token> tokens, int[] syncs, int syncCount, int endLevel, int endLength) {
+    }
+
+    // Starts of the chunks, the first one is 0
+    private static List<Integer> cuts(CodePointBuffer text, int chunks) {
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        int size = text.size();
+        chunks = Math.min(chunks, size / MIN_CHUNK_SIZE);
+        if (chunks <= 1) return cuts;
+
+        // The first real token owns the trivia before it, so no chunk can start at its line
+        int position = nextLine(text, 0);
+        while (position < size && !isResumable(text, position)) {
+            position = nextLine(text, position);
+        }
+        position = nextLine(text, position);
+
+        int chunkSize = size / chunks;
+        for (int i = 1; i < chunks; i++) {
+            position = Math.max(position, chunkSize * i);
+            int cut = -1;
+            for (int line = lineAfter(text, position); line < size && line < position + chunkSize / 2;
+                 line = nextLine(text, line)) {
+                if (isResumable(text, line)) {
+                    if (cut == -1) cut = line;
+                    if (!isIndented(text, line)) {
+                        cut = line;
+                        break;
+                    }
+                }
+            }
+            if (cut == -1) continue;
+            cuts.add(cut);
+            position = nextLine(text, cut);
+        }
+        return cuts;
+    }
+
+    private static Chunk lexChunk(CodePointBuffer text, int start, int end) {
+        TokenStream stream;
+        if (start == 0) {
+            stream = new TokenStream(text);
+        } else if (!isIndented(text, start)) {
+            stream = new TokenStream(text, start, 0, -1);
+        } else {
+            // Right if the line opens the first level, which is as good a guess as any
+            stream = new TokenStream(text, start, 1, getWhitespacesLength(start, text.size() - 1, text));
+        }
+
+        // Position, token count, level and length at each line start until the state is certain
+        int[] syncs = new int[64];
+        int syncCount = 0;
+        boolean certain = start == 0;
+        while (!stream.isFinished() && (end == -1 || stream.position() < end)) {
+            int position = stream.position();
+            if (!certain && (position == start || text.get(position - 1) == '\n') && isResumable(text, position)) {
+                if (syncCount + 4 > syncs.length) {
+                    syncs = Arrays.copyOf(syncs, syncs.length * 2);
+                }
+                syncs[syncCount++] = position;
+                syncs[syncCount++] = stream.pendingCount();
+                syncs[syncCount++] = stream.indentationLevel();
+                syncs[syncCount++] = stream.indentationLength();
+                certain = !isIndented(text, position);
+            }
+            stream.step();
+        }
+        return new Chunk(stream.drain(), syncs, syncCount, stream.indentationLevel(), stream.indentationLength());
+    }
+
+    private static List<Token> join(CodePointBuffer text, List<Integer> cuts, List<Chunk> chunks) {
+        int size = 0;
+        for (Chunk chunk : chunks) {
+            size += chunk.tokens.size();
+        }
+        List<Token> result = new ArrayList<>(size);
+
+        Chunk first = chunks.getFirst();
+        result.addAll(first.tokens);
+        int level = first.endLevel, length = first.endLength;
+        for (int i = 1; i < chunks.size(); i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk.syncs[2] == level && chunk.syncs[3] == length) {
+                result.addAll(chunk.tokens);
+            } else {
+                int end = i + 1 < cuts.size() ? cuts.get(i + 1) : -1;
+                TokenStream stream = new TokenStream(text, cuts.get(i), level, length);
+                int sync = 4;
+                boolean synced = false;
+                while (!stream.isFinished() && (end == -1 || stream.position() < end)) {
+                    int position = stream.position();
+                    while (sync < chunk.syncCount && chunk.syncs[sync] < position) {
+                        sync += 4;
+                    }
+                    synced = sync < chunk.syncCount && chunk.syncs[sync] == position
+                            && chunk.syncs[sync + 2] == stream.indentationLevel()
+                            && chunk.syncs[sync + 3] == stream.indentationLength();
+                    if (synced) break;
+                    stream.step();
+                }
+                result.addAll(stream.drain());
+                if (!synced) {
+                    // Never agreed, so the chunk was lexed again as a whole
+                    level = stream.indentationLevel();
+                    length = stream.indentationLength();
+                    continue;
+                }
+                result.addAll(chunk.tokens.subList(chunk.syncs[sync + 1], chunk.tokens.size()));
+            }
+            level = chunk.endLevel;
+            length = chunk.endLength;
+        }
+        return result;
+    }
+
+    // Whether lexing can resume at this line start: the line has a real token
+    static boolean isResumable(CodePointBuffer text, int lineStart) {
+        int border = text.size() - 1;
+        int position = lineStart + getWhitespacesLength(lineStart, border, text);
+        return position <= border && getNewLineLength(position, border, text) == 0
+                && getCommentsLength(position, border, text) == 0;
+    }
+
+    private static boolean isIndented(CodePointBuffer text, int lineStart) {
+        return getWhitespacesLength(lineStart, text.size() - 1, text) > 0;
+    }
+
+    // Start of the line after the one containing position
+    private static int nextLine(CodePointBuffer text, int position) {
+        int size = text.size();
+        while (position < size && text.get(position) != '\n') {
+            position++;
+        }
+        return position + 1;
+    }
+
+    // Start of the first line at or after position
+    private static int lineAfter(CodePointBuffer text, int position) {
+        return position == 0 || text.get(position - 1) == '\n' ? position : nextLine(text, position);
+    }
+}
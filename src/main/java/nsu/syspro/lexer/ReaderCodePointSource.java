@@ -0,0 +1,147 @@
+package nsu.syspro.lexer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * {@link CodePointSource} over a {@link Reader} that keeps only a sliding window of the text in memory.
+ * The window holds everything from the last {@link #release(int)} position on, and grows only when
+ * a single line together with the trivia before it does not fit.
+ */
+public class ReaderCodePointSource implements CodePointSource {
+
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char[] chars;
+    private int[] window;
+    // absolute index of window[0]
+    private int windowStart = 0;
+    private int count = 0;
+    private int released = 0;
+    private int highSurrogate = -1;
+    private boolean eof = false;
+
+    public ReaderCodePointSource(Reader reader, int windowSize) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("windowSize");
+        }
+        this.reader = reader;
+        this.window = new int[windowSize];
+        this.chars = new char[windowSize / 2];
+    }
+
+    public ReaderCodePointSource(Reader reader) {
+        this(reader, DEFAULT_WINDOW_SIZE);
+    }
+
+    @Override
+    public int get(int index) {
+        if (index < windowStart || !isAvailable(index)) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return window[index - windowStart];
+    }
+
+    @Override
+    public int size() {
+        return windowStart + count;
+    }
+
+    @Override
+    public int load(int from) {
+        int pos = from;
+        // Skip the trivia the lexer step will consume
+        while (isAvailable(pos)) {
+            int current = get(pos);
+            if (current == ' ' || current == '\t' || current == '\n') {
+                pos++;
+            } else if (current == '\r' && isAvailable(pos + 1) && get(pos + 1) == '\n') {
+                pos += 2;
+            } else if (current == '#') {
+                while (isAvailable(pos) && get(pos) != '\n') {
+                    pos++;
+                }
+            } else {
+                break;
+            }
+        }
+        // and the rest of the line the next token is on, so token and indentation scans never hit the window end
+        while (isAvailable(pos) && get(pos) != '\n') {
+            pos++;
+        }
+        return size() - 1;
+    }
+
+    @Override
+    public void release(int index) {
+        released = Math.max(released, index);
+    }
+
+    private boolean isAvailable(int index) {
+        while (index >= size()) {
+            if (!fetch()) return false;
+        }
+        return true;
+    }
+
+    private boolean fetch() {
+        if (eof) return false;
+
+        int read;
+        try {
+            read = reader.read(chars, 0, chars.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (read == -1) {
+            eof = true;
+            if (highSurrogate == -1) return false;
+            append(highSurrogate);
+            highSurrogate = -1;
+            return true;
+        }
+
+        // Same decoding as String.codePoints(): unpaired surrogates become code points on their own
+        for (int i = 0; i < read; i++) {
+            char current = chars[i];
+            if (highSurrogate != -1) {
+                if (Character.isLowSurrogate(current)) {
+                    append(Character.toCodePoint((char) highSurrogate, current));
+                    highSurrogate = -1;
+                    continue;
+                }
+                append(highSurrogate);
+                highSurrogate = -1;
+            }
+            if (Character.isHighSurrogate(current)) {
+                highSurrogate = current;
+            } else {
+                append(current);
+            }
+        }
+        return true;
+    }
+
+    private void append(int codePoint) {
+        if (count == window.length) {
+            compact();
+        }
+        window[count++] = codePoint;
+    }
+
+    private void compact() {
+        int dropped = released - windowStart;
+        if (dropped > 0) {
+            System.arraycopy(window, dropped, window, 0, count - dropped);
+            windowStart = released;
+            count -= dropped;
+        }
+        if (count > window.length / 2) {
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+    }
+}
@@ -2,17 +2,10 @@ package nsu.syspro.lexer;
 
 import syspro.tm.lexer.*;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static javax.lang.model.SourceVersion.isIdentifier;
 import static nsu.syspro.lexer.Matchers.*;
 
 public class Recognizer {
-    public static int getWhitespacesLength(int pos, int end, ArrayList<Integer> codePoints) {
+    public static int getWhitespacesLength(int pos, int end, CodePointSource codePoints) {
         int length = 0;
         while (pos <= end && (codePoints.get(pos) == ' ' || codePoints.get(pos) == '\t')) {
             length++;
@@ -21,7 +14,7 @@ public class Recognizer {
         return length;
     }
 
-    public static int getNewLineLength(int pos, int end, ArrayList<Integer> codePoints) {
+    public static int getNewLineLength(int pos, int end, CodePointSource codePoints) {
         if (pos > end) {
             return 0;
         } else if (codePoints.get(pos) == '\n') {
@@ -32,7 +25,7 @@ public class Recognizer {
         return 0;
     }
 
-    public static int getCommentsLength(int pos, int end, ArrayList<Integer> codePoints) {
+    public static int getCommentsLength(int pos, int end, CodePointSource codePoints) {
         if (pos > end || codePoints.get(pos) != '#') return 0;
         int length = 1;
         pos++;
@@ -48,7 +41,7 @@ public class Recognizer {
         return length;
     }
 
-    private static int getTriviaLength(int pos, int end, ArrayList<Integer> codePoints) {
+    private static int getTriviaLength(int pos, int end, CodePointSource codePoints) {
         int length = 0;
         int whitespacesLength = getWhitespacesLength(pos, end, codePoints);
         while (pos <= end && whitespacesLength > 0) {
@@ -71,7 +64,7 @@ public class Recognizer {
         return length;
     }
 
-    private static String getString(int start, int end, ArrayList<Integer> codePoints) {
+    private static String getString(int start, int end, CodePointSource codePoints) {
         StringBuilder sb = new StringBuilder();
         for (int i = start; i <= end; i++) {
             sb.appendCodePoint(codePoints.get(i));
@@ -79,120 +72,156 @@ public class Recognizer {
         return sb.toString();
     }
 
-    public static Token recognize(int start, int end, ArrayList<Integer> codePoints) {
-        String word = getString(start, end, codePoints);
-
-        if (isKeyword(word)) {
-            Keyword keyword = Keyword.valueOf(word.toUpperCase());
-            return new syspro.tm.lexer.KeywordToken(start, end, 0, 0, keyword);
+    /**
+     * Adds the token of the code points {@code [start, end]} to {@code tokens}, without trivia.
+     */
+    public static void recognize(int start, int end, CodePointSource codePoints, TokenBuffer tokens) {
+        Keyword keyword = getKeyword(start, end, codePoints);
+        if (keyword != null) {
+            tokens.addKeyword(start, end, keyword);
+            return;
         }
 
-        if (isSymbol(word)) {
-            Symbol symbol = Arrays.stream(Symbol.values())
-                    .filter(s -> s.text.equals(word))
-                    .findFirst()
-                    .orElse(null);
-            return new syspro.tm.lexer.SymbolToken(start, end, 0, 0, symbol);
+        Symbol symbol = getSymbol(start, end, codePoints);
+        if (symbol != null) {
+            tokens.addSymbol(start, end, symbol);
+            return;
         }
 
-        if (isBooleanLiteral(word)) {
-            if (word.equals("true")) {
-                return new syspro.tm.lexer.BooleanLiteralToken(start, end, 0, 0, true);
-            }
-            return new syspro.tm.lexer.BooleanLiteralToken(start, end, 0, 0, false);
+        Boolean booleanLiteral = getBooleanLiteral(start, end, codePoints);
+        if (booleanLiteral != null) {
+            tokens.addBoolean(start, end, booleanLiteral);
+            return;
         }
 
-        if (isIntegerLiteral(word)) {
-            boolean hasTypeSuffix = false;
+        if (isIntegerLiteral(start, end, codePoints)) {
+            boolean hasTypeSuffix = hasIntegerTypeSuffix(start, end, codePoints);
             BuiltInType type = BuiltInType.INT64;
+            int digitsEnd = end;
 
-            String regex = "(\\d+)(i32|i64|u32|u64)?";
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(word);
-
-            String suffix = null;
-
-            if (matcher.matches()) {
-                suffix = matcher.group(2);
-            }
-
-            String valueString = word;
-            Map<String, BuiltInType> stringTypesToBuiltInTypes = Map.of(
-                    "i32", BuiltInType.INT32,
-                    "i64", BuiltInType.INT64,
-                    "u32", BuiltInType.UINT32,
-                    "u64", BuiltInType.UINT64
-            );
-
-            if (suffix != null) {
-                hasTypeSuffix = true;
-                valueString = matcher.group(1);
-                type = stringTypesToBuiltInTypes.get(suffix);
+            if (hasTypeSuffix) {
+                type = getIntegerType(codePoints.get(end - 2), codePoints.get(end - 1));
+                digitsEnd = end - 3;
             }
 
-            try {
-                long value = Long.parseLong(valueString);
-                return new syspro.tm.lexer.IntegerLiteralToken(start, end, 0, 0, type, hasTypeSuffix, value);
-            } catch (NumberFormatException e) {
-                return new BadToken(start, end, 0, 0);
+            long value = 0;
+            for (int pos = start; pos <= digitsEnd; pos++) {
+                int digit = codePoints.get(pos) - '0';
+                if (value > (Long.MAX_VALUE - digit) / 10) {
+                    tokens.addBad(start, end);
+                    return;
+                }
+                value = value * 10 + digit;
             }
-
+            tokens.addInteger(start, end, type, hasTypeSuffix, value);
+            return;
         }
 
-        if (isRuneLiteral(word)) {
-            int unicodeCodePoint = word.codePointAt(0);
-            return new syspro.tm.lexer.RuneLiteralToken(start, end, 0, 0, unicodeCodePoint);
+        if (isRuneLiteral(start, end, codePoints)) {
+            tokens.addRune(start, end, codePoints.get(start));
+            return;
         }
 
-        if (isStringLiteral(word)) {
-            return new syspro.tm.lexer.StringLiteralToken(start, end, 0, 0, word);
+        if (isStringLiteral(start, end, codePoints)) {
+            tokens.addString(start, end, getString(start, end, codePoints));
+            return;
         }
 
-        if (isIdentifier(word)) {
-            Keyword keyword = null;
-            if (isKeyword(word)) {
-                keyword = Keyword.valueOf(word.toUpperCase());
-            }
-            return new IdentifierToken(start, end, 0, 0, word, keyword);
+        // Keywords were matched above, so an identifier never carries a contextual keyword here
+        if (isIdentifier(start, end, codePoints)) {
+            tokens.addIdentifier(start, end, getString(start, end, codePoints));
+            return;
         }
 
-        return new BadToken(start, end, 0, 0);
+        tokens.addBad(start, end);
+    }
+
+    private static BuiltInType getIntegerType(int sign, int width) {
+        if (sign == 'i') {
+            return width == '3' ? BuiltInType.INT32 : BuiltInType.INT64;
+        }
+        return width == '3' ? BuiltInType.UINT32 : BuiltInType.UINT64;
     }
 
-    public static int getCorrectTokenLength(int start, int end, int border, ArrayList<Integer> codePoints) {
+    public static int getCorrectTokenLength(int start, int end, int border, CodePointSource codePoints) {
         if (end > border) return 0;
-        int length = 0;
 
-        if (end - start + 1 == 1 && codePoints.get(end) == '\"') {
-            length = 1;
-            end++;
-            while (end < border && codePoints.get(end) != '\"') {
-                length++;
-                end++;
+        // Token class is fully determined by the first code point,
+        // so each branch scans the longest valid token in a single pass
+        int first = codePoints.get(start);
+        if (first == '\"') {
+            return getStringLiteralLength(start, border, codePoints);
+        } else if (first == '\'') {
+            return getRuneLiteralLength(start, border, codePoints);
+        } else if (isDigit(first)) {
+            return getIntegerLiteralLength(start, border, codePoints);
+        } else if (Character.isJavaIdentifierStart(first)) {
+            return getIdentifierLength(start, border, codePoints);
+        }
+        return getLongestSymbolLength(start, border, codePoints);
+    }
+
+    private static int getStringLiteralLength(int start, int border, CodePointSource codePoints) {
+        // Backslash is a valid simple string character, so any '"' preceded by '\\' may be an escape,
+        // and the first '"' that is not preceded by '\\' always closes the literal
+        int lastQuote = -1;
+        int previous = codePoints.get(start);
+        for (int pos = start + 1; pos <= border; pos++) {
+            int current = codePoints.get(pos);
+            if (current == '\r' || current == '\n') break;
+            if (current == '\"') {
+                lastQuote = pos;
+                if (previous != '\\') break;
             }
-        } else if (end - start + 1 == 1 && codePoints.get(end) == '\'') {
-            length = 1;
-            end++;
-            while (end < border && codePoints.get(end) != '\'') {
-                length++;
-                end++;
+            previous = current;
+        }
+        return lastQuote == -1 ? 0 : lastQuote - start + 1;
+    }
+
+    private static int getRuneLiteralLength(int start, int border, CodePointSource codePoints) {
+        // '\U+XXXXX', '\U+XXXX', '\c', 'c'
+        for (int length : new int[]{10, 9, 4, 3}) {
+            int end = start + length - 1;
+            if (end <= border && isRuneLiteral(start, end, codePoints)) {
+                return length;
             }
         }
+        // An invalid rune ends before the next quote on the line, which then starts a token of its own
+        for (int pos = start + 1; pos <= border; pos++) {
+            int current = codePoints.get(pos);
+            if (current == '\r' || current == '\n') break;
+            if (current == '\'') return pos - start;
+        }
+        return 0;
+    }
 
-        while (end <= border && !(Recognizer.recognize(start, end, codePoints) instanceof BadToken)) {
-            length++;
-            end++;
-            if (end + 2 <= border && Recognizer.recognize(start, end, codePoints) instanceof BadToken) {
-                if (!(Recognizer.recognize(start, end + 2, codePoints) instanceof BadToken)) {
-                    end += 2;
-                    length += 2;
-                }
+    private static int getIntegerLiteralLength(int start, int border, CodePointSource codePoints) {
+        // Digits beyond Long.MAX_VALUE are left for the next token, same as a failed Long.parseLong
+        int pos = start;
+        long value = 0;
+        while (pos <= border && isDigit(codePoints.get(pos))) {
+            int digit = codePoints.get(pos) - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                return pos - start;
             }
+            value = value * 10 + digit;
+            pos++;
         }
-        return length;
+        if (pos + 2 <= border && hasIntegerTypeSuffix(pos, pos + 2, codePoints)) {
+            pos += 3;
+        }
+        return pos - start;
+    }
+
+    private static int getIdentifierLength(int start, int border, CodePointSource codePoints) {
+        int pos = start + 1;
+        while (pos <= border && Character.isJavaIdentifierPart(codePoints.get(pos))) {
+            pos++;
+        }
+        return pos - start;
     }
 
-    public static int getBadTokenLength(int pos, int end, ArrayList<Integer> codePoints) {
+    public static int getBadTokenLength(int pos, int end, CodePointSource codePoints) {
         int length = 0;
         while (pos <= end && getTriviaLength(pos, end, codePoints) == 0) {
             length++;
@@ -201,7 +230,7 @@ public class Recognizer {
         return length;
     }
 
-    public static ResultIndentation lexIndentation(int end, int border, int levelIndentation, int lengthIndentation, ArrayList<Integer> codePoints) {
+    public static ResultIndentation lexIndentation(int end, int border, int levelIndentation, int lengthIndentation, CodePointSource codePoints) {
         end += getNewLineLength(end, border, codePoints);
 
         int newLineLength = getNewLineLength(end, border, codePoints);
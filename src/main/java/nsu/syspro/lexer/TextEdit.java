@@ -0,0 +1,8 @@
+package nsu.syspro.lexer;
+
+/**
+ * Replacement of {@code removedLength} code points at {@code offset} with {@code insertedText}.
+ * Offsets and lengths are in code points, like token positions.
+ */
+public record TextEdit(int offset, int removedLength, String insertedText) {
+}
@@ -0,0 +1,394 @@
+package nsu.syspro.lexer;
+
+import syspro.tm.lexer.BadToken;
+import syspro.tm.lexer.BooleanLiteralToken;
+import syspro.tm.lexer.BuiltInType;
+import syspro.tm.lexer.IdentifierToken;
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.IntegerLiteralToken;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.KeywordToken;
+import syspro.tm.lexer.RuneLiteralToken;
+import syspro.tm.lexer.StringLiteralToken;
+import syspro.tm.lexer.Symbol;
+import syspro.tm.lexer.SymbolToken;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxKind;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Tokens kept in primitive arrays, so that the lexer can adjust their trivia in place.
+ * A {@link Token} is only made when one is asked for, each time anew.
+ * <p>
+ * The class of a token is stored with its extra attributes in {@code kinds}: the ordinal of a keyword or symbol,
+ * the type and suffix of an integer literal. Small values go to {@code payloads}, while strings and
+ * integer literal values go to side tables and the payload is their index there. In a buffer made by {@link #of},
+ * tokens with equal strings share one entry of the table, as most identifiers of a text occur many times.
+ */
+public final class TokenBuffer {
+
+    private static final int BAD = 0, IDENTIFIER = 1, INDENTATION = 2, KEYWORD = 3, SYMBOL = 4,
+            BOOLEAN = 5, INTEGER = 6, RUNE = 7, STRING = 8;
+    private static final int CLASS_BITS = 4, CLASS_MASK = (1 << CLASS_BITS) - 1;
+
+    private static final Keyword[] KEYWORDS = Keyword.values();
+    private static final Symbol[] SYMBOLS = Symbol.values();
+    private static final BuiltInType[] TYPES = BuiltInType.values();
+
+    private int[] kinds = new int[64];
+    private int[] starts = new int[64];
+    private int[] ends = new int[64];
+    private int[] leadingTrivia = new int[64];
+    private int[] trailingTrivia = new int[64];
+    private int[] payloads = new int[64];
+    private final ArrayList<String> strings = new ArrayList<>();
+    private long[] integers = new long[16];
+    private int integerCount = 0;
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+
+    public int leadingTriviaLength(int index) {
+        return leadingTrivia[index];
+    }
+
+    public int trailingTriviaLength(int index) {
+        return trailingTrivia[index];
+    }
+
+    /**
+     * Same as {@link Token#toSyntaxKind()} of the token, without making it.
+     */
+    public AnySyntaxKind kind(int index) {
+        int kind = kinds[index];
+        return switch (kind & CLASS_MASK) {
+            case IDENTIFIER -> SyntaxKind.IDENTIFIER;
+            case INDENTATION -> payloads[index] > 0 ? SyntaxKind.INDENT : SyntaxKind.DEDENT;
+            case KEYWORD -> KEYWORDS[kind >>> CLASS_BITS];
+            case SYMBOL -> SYMBOLS[kind >>> CLASS_BITS];
+            case BOOLEAN -> SyntaxKind.BOOLEAN;
+            case INTEGER -> SyntaxKind.INTEGER;
+            case RUNE -> SyntaxKind.RUNE;
+            case STRING -> SyntaxKind.STRING;
+            default -> SyntaxKind.BAD;
+        };
+    }
+
+    boolean isIndentation(int index) {
+        return (kinds[index] & CLASS_MASK) == INDENTATION;
+    }
+
+    /**
+     * @return a new token object for the token at {@code index}
+     */
+    public Token token(int index) {
+        int kind = kinds[index];
+        int start = starts[index], end = ends[index];
+        int leading = leadingTrivia[index], trailing = trailingTrivia[index];
+        int payload = payloads[index];
+        return switch (kind & CLASS_MASK) {
+            case IDENTIFIER -> new IdentifierToken(start, end, leading, trailing, strings.get(payload), null);
+            case INDENTATION -> new IndentationToken(start, end, leading, trailing, payload);
+            case KEYWORD -> new KeywordToken(start, end, leading, trailing, KEYWORDS[kind >>> CLASS_BITS]);
+            case SYMBOL -> new SymbolToken(start, end, leading, trailing, SYMBOLS[kind >>> CLASS_BITS]);
+            case BOOLEAN -> new BooleanLiteralToken(start, end, leading, trailing, payload != 0);
+            case INTEGER -> new IntegerLiteralToken(start, end, leading, trailing,
+                    TYPES[kind >>> (CLASS_BITS + 1)], (kind >>> CLASS_BITS & 1) != 0, integers[payload]);
+            case RUNE -> new RuneLiteralToken(start, end, leading, trailing, payload);
+            case STRING -> new StringLiteralToken(start, end, leading, trailing, strings.get(payload));
+            default -> new BadToken(start, end, leading, trailing);
+        };
+    }
+
+    /**
+     * @return token objects for all tokens
+     */
+    public List<Token> toList() {
+        List<Token> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(token(i));
+        }
+        return result;
+    }
+
+    /**
+     * @return a read-only view of the tokens, which makes a new token object on each get.
+     * The buffer must not change while the view is in use.
+     */
+    public List<Token> asList() {
+        return new TokenList();
+    }
+
+    /**
+     * @return the tokens in a buffer without room to spare, they are expected to be as {@link MyLexer} makes them
+     */
+    public static TokenBuffer of(List<Token> tokens) {
+        TokenBuffer buffer = new TokenBuffer();
+        HashMap<String, Integer> stringIndices = new HashMap<>();
+        for (Token token : tokens) {
+            int start = token.start, end = token.end;
+            switch (token) {
+                case IdentifierToken identifier ->
+                        buffer.add(IDENTIFIER, start, end, buffer.sharedString(identifier.value, stringIndices));
+                case IndentationToken indentation -> buffer.addIndentation(start, end, indentation.difference);
+                case KeywordToken keyword -> buffer.addKeyword(start, end, keyword.keyword);
+                case SymbolToken symbol -> buffer.addSymbol(start, end, symbol.symbol);
+                case BooleanLiteralToken bool -> buffer.addBoolean(start, end, bool.value);
+                case IntegerLiteralToken integer ->
+                        buffer.addInteger(start, end, integer.type, integer.hasTypeSuffix, integer.value);
+                case RuneLiteralToken rune -> buffer.addRune(start, end, rune.value);
+                case StringLiteralToken string ->
+                        buffer.add(STRING, start, end, buffer.sharedString(string.value, stringIndices));
+                default -> buffer.addBad(start, end);
+            }
+            buffer.setLeadingTriviaLength(buffer.size - 1, token.leadingTriviaLength);
+            buffer.setTrailingTriviaLength(buffer.size - 1, token.trailingTriviaLength);
+        }
+        buffer.trim();
+        return buffer;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo} puts
+     */
+    public int serializedSize() {
+        long bytes = 3 * Integer.BYTES + 6L * size * Integer.BYTES + (long) integerCount * Long.BYTES;
+        for (String string : strings) {
+            bytes += Integer.BYTES + (long) string.length() * Character.BYTES;
+        }
+        return Math.toIntExact(bytes);
+    }
+
+    /**
+     * Puts the arrays as they are, followed by the side tables, in the byte order of {@code out}.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(size).putInt(integerCount).putInt(strings.size());
+        for (int[] array : new int[][]{kinds, starts, ends, leadingTrivia, trailingTrivia, payloads}) {
+            out.asIntBuffer().put(array, 0, size);
+            out.position(out.position() + size * Integer.BYTES);
+        }
+        out.asLongBuffer().put(integers, 0, integerCount);
+        out.position(out.position() + integerCount * Long.BYTES);
+        for (String string : strings) {
+            out.putInt(string.length());
+            out.asCharBuffer().put(string);
+            out.position(out.position() + string.length() * Character.BYTES);
+        }
+    }
+
+    /**
+     * Reads what {@link #writeTo} put, in the byte order of {@code in}.
+     *
+     * @throws BufferUnderflowException if {@code in} ends before what it says it holds
+     */
+    public static TokenBuffer readFrom(ByteBuffer in) {
+        TokenBuffer buffer = new TokenBuffer();
+        int size = in.getInt(), integerCount = in.getInt(), stringCount = in.getInt();
+        checkCount(in, size, 6 * Integer.BYTES);
+        checkCount(in, integerCount, Long.BYTES);
+        checkCount(in, stringCount, Integer.BYTES);
+        buffer.size = size;
+        buffer.kinds = readInts(in, size);
+        buffer.starts = readInts(in, size);
+        buffer.ends = readInts(in, size);
+        buffer.leadingTrivia = readInts(in, size);
+        buffer.trailingTrivia = readInts(in, size);
+        buffer.payloads = readInts(in, size);
+        buffer.integerCount = integerCount;
+        buffer.integers = new long[integerCount];
+        in.asLongBuffer().get(buffer.integers);
+        in.position(in.position() + integerCount * Long.BYTES);
+        buffer.strings.ensureCapacity(stringCount);
+        char[] chars = new char[0];
+        for (int i = 0; i < stringCount; i++) {
+            int length = in.getInt();
+            checkCount(in, length, Character.BYTES);
+            if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+            in.asCharBuffer().get(chars, 0, length);
+            in.position(in.position() + length * Character.BYTES);
+            buffer.strings.add(new String(chars, 0, length));
+        }
+        return buffer;
+    }
+
+    // Fails on a count that does not fit in the rest of the buffer, as in a corrupted one, instead of allocating for it
+    private static void checkCount(ByteBuffer in, int count, int bytesEach) {
+        if (count < 0 || (long) count * bytesEach > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] array = new int[count];
+        in.asIntBuffer().get(array);
+        in.position(in.position() + count * Integer.BYTES);
+        return array;
+    }
+
+    void addBad(int start, int end) {
+        add(BAD, start, end, 0);
+    }
+
+    void addIdentifier(int start, int end, String value) {
+        add(IDENTIFIER, start, end, strings.size());
+        strings.add(value);
+    }
+
+    // Index of the value among the strings, added if it is not among those in indices yet
+    private int sharedString(String value, Map<String, Integer> indices) {
+        return indices.computeIfAbsent(value, newValue -> {
+            strings.add(newValue);
+            return strings.size() - 1;
+        });
+    }
+
+    void addIndentation(int start, int end, int difference) {
+        add(INDENTATION, start, end, difference);
+    }
+
+    void addKeyword(int start, int end, Keyword keyword) {
+        add(KEYWORD | keyword.ordinal() << CLASS_BITS, start, end, 0);
+    }
+
+    void addSymbol(int start, int end, Symbol symbol) {
+        add(SYMBOL | symbol.ordinal() << CLASS_BITS, start, end, 0);
+    }
+
+    void addBoolean(int start, int end, boolean value) {
+        add(BOOLEAN, start, end, value ? 1 : 0);
+    }
+
+    void addInteger(int start, int end, BuiltInType type, boolean hasTypeSuffix, long value) {
+        if (integerCount == integers.length) {
+            integers = Arrays.copyOf(integers, Math.max(integerCount * 2, 16));
+        }
+        add(INTEGER | (type.ordinal() << 1 | (hasTypeSuffix ? 1 : 0)) << CLASS_BITS, start, end, integerCount);
+        integers[integerCount++] = value;
+    }
+
+    void addRune(int start, int end, int value) {
+        add(RUNE, start, end, value);
+    }
+
+    void addString(int start, int end, String value) {
+        add(STRING, start, end, strings.size());
+        strings.add(value);
+    }
+
+    void setStart(int index, int start) {
+        starts[index] = start;
+    }
+
+    void setEnd(int index, int end) {
+        ends[index] = end;
+    }
+
+    void setLeadingTriviaLength(int index, int length) {
+        leadingTrivia[index] = length;
+    }
+
+    void setTrailingTriviaLength(int index, int length) {
+        trailingTrivia[index] = length;
+    }
+
+    /**
+     * Drops the first {@code count} tokens, with the literal values only they refer to.
+     */
+    void removeFirst(int count) {
+        if (count == 0) return;
+        size -= count;
+        System.arraycopy(kinds, count, kinds, 0, size);
+        System.arraycopy(starts, count, starts, 0, size);
+        System.arraycopy(ends, count, ends, 0, size);
+        System.arraycopy(leadingTrivia, count, leadingTrivia, 0, size);
+        System.arraycopy(trailingTrivia, count, trailingTrivia, 0, size);
+        System.arraycopy(payloads, count, payloads, 0, size);
+
+        // Literal values are added in token order, or shared with earlier tokens, so the ones before the first value
+        // left over are not needed anymore
+        int firstString = strings.size(), firstInteger = integerCount;
+        for (int i = size - 1; i >= 0; i--) {
+            switch (kinds[i] & CLASS_MASK) {
+                case IDENTIFIER, STRING -> firstString = Math.min(firstString, payloads[i]);
+                case INTEGER -> firstInteger = Math.min(firstInteger, payloads[i]);
+            }
+        }
+        strings.subList(0, firstString).clear();
+        integerCount -= firstInteger;
+        System.arraycopy(integers, firstInteger, integers, 0, integerCount);
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i] & CLASS_MASK) {
+                case IDENTIFIER, STRING -> payloads[i] -= firstString;
+                case INTEGER -> payloads[i] -= firstInteger;
+            }
+        }
+    }
+
+    /**
+     * Drops the room kept for tokens to come.
+     */
+    void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        starts = Arrays.copyOf(starts, size);
+        ends = Arrays.copyOf(ends, size);
+        leadingTrivia = Arrays.copyOf(leadingTrivia, size);
+        trailingTrivia = Arrays.copyOf(trailingTrivia, size);
+        payloads = Arrays.copyOf(payloads, size);
+        integers = Arrays.copyOf(integers, integerCount);
+        strings.trimToSize();
+    }
+
+    private void add(int kind, int start, int end, int payload) {
+        if (size == kinds.length) {
+            int capacity = Math.max(size * 2, 16);
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            leadingTrivia = Arrays.copyOf(leadingTrivia, capacity);
+            trailingTrivia = Arrays.copyOf(trailingTrivia, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        kinds[size] = kind;
+        starts[size] = start;
+        ends[size] = end;
+        leadingTrivia[size] = 0;
+        trailingTrivia[size] = 0;
+        payloads[size] = payload;
+        size++;
+    }
+
+    private final class TokenList extends AbstractList<Token> implements RandomAccess {
+
+        @Override
+        public Token get(int index) {
+            return token(Objects.checkIndex(index, size));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
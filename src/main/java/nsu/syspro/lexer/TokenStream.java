@@ -0,0 +1,261 @@
+package nsu.syspro.lexer;
+
+import syspro.tm.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static nsu.syspro.lexer.Recognizer.*;
+
+/**
+ * Pull-based lexer over a {@link CodePointSource}, produces the same tokens as {@link MyLexer#lex(String)}.
+ * <p>
+ * A token is handed out only once nothing can change it anymore: trailing trivia is attached to the last
+ * real (non-indentation) token when a line break is reached, so it stays pending until the next real token
+ * appears or the input ends. Memory is bounded by the tokens since the last real token and by the
+ * window of the source.
+ * <p>
+ * Pending tokens are kept in a {@link TokenBuffer}, so trivia is attached in place and a token object
+ * is only made when the token is handed out.
+ */
+public class TokenStream {
+
+    private final CodePointSource codePoints;
+
+    // Tokens that are not handed out yet, starting at index head.
+    // Starts with a placeholder that collects trivia before the first real token.
+    private TokenBuffer tokens = new TokenBuffer();
+    private int head = 0;
+    // Index of the last real (non-indentation) token in tokens, which gets the trailing trivia, or -1
+    private int lastRealToken = -1;
+    private boolean placeholderPending = true;
+    private boolean finished = false;
+
+    private int start = 0, end = 0, currentIndentationLevel = 0, currentIndentationLength = -1;
+
+    public TokenStream(CodePointSource codePoints) {
+        this.codePoints = codePoints;
+        tokens.addBad(0, 0);
+        lastRealToken = 0;
+    }
+
+    /**
+     * Resumes lexing at the start of a real token other than the first one,
+     * with the indentation state the lexer had there.
+     */
+    TokenStream(CodePointSource codePoints, int position, int indentationLevel, int indentationLength) {
+        this.codePoints = codePoints;
+        this.placeholderPending = false;
+        this.start = position;
+        this.end = position;
+        this.currentIndentationLevel = indentationLevel;
+        this.currentIndentationLength = indentationLength;
+    }
+
+    /**
+     * @return the next token, or {@code null} once the input is exhausted
+     */
+    public Token nextToken() {
+        while (!isNextTokenComplete()) {
+            if (finished) return null;
+            step();
+        }
+
+        Token token = tokens.token(head++);
+        if (head == tokens.size() || head >= 1024) {
+            removeFirst(head);
+            head = 0;
+        }
+        return token;
+    }
+
+    public List<Token> toList() {
+        return toBuffer().toList();
+    }
+
+    /**
+     * Lexes the rest of the input and hands out all tokens not handed out yet, without making token objects.
+     */
+    public TokenBuffer toBuffer() {
+        while (!finished) {
+            step();
+        }
+        removeFirst(head);
+        head = 0;
+        TokenBuffer result = tokens;
+        result.trim();
+        tokens = new TokenBuffer();
+        lastRealToken = -1;
+        return result;
+    }
+
+    int position() {
+        return end;
+    }
+
+    int indentationLevel() {
+        return currentIndentationLevel;
+    }
+
+    int indentationLength() {
+        return currentIndentationLength;
+    }
+
+    boolean isFinished() {
+        return finished;
+    }
+
+    boolean isPlaceholderPending() {
+        return placeholderPending;
+    }
+
+    /**
+     * @return the number of tokens produced so far and not handed out yet
+     */
+    int pendingCount() {
+        return tokens.size() - head;
+    }
+
+    /**
+     * Hands out all tokens produced so far, whether or not they are complete.
+     */
+    List<Token> drain() {
+        List<Token> result = new ArrayList<>(tokens.size() - head);
+        for (int i = head; i < tokens.size(); i++) {
+            result.add(tokens.token(i));
+        }
+        removeFirst(tokens.size());
+        head = 0;
+        return result;
+    }
+
+    private boolean isNextTokenComplete() {
+        if (head >= tokens.size()) return false;
+        return finished || tokens.isIndentation(head) || head < lastRealToken;
+    }
+
+    // One iteration of the lexing loop: a run of trivia, followed either by
+    // indentation changes for the line breaks in it or by a single token
+    void step() {
+        codePoints.release(end);
+        int border = codePoints.load(end);
+
+        int triviaStart = start;
+
+        int whitespacesLength = getWhitespacesLength(end, border, codePoints);
+        int commentsLength = getCommentsLength(end, border, codePoints);
+        int newLineLength = getNewLineLength(end, border, codePoints);
+
+        boolean newLineEncountered = newLineLength > 0;
+        int firstNewLineStart = newLineEncountered ? end : -1;
+
+        while (whitespacesLength > 0 || commentsLength > 0 || newLineLength > 0) {
+
+            if (newLineEncountered) {
+                while (newLineLength > 0) {
+                    end += newLineLength;
+                    newLineLength = getNewLineLength(end, border, codePoints);
+                }
+                break;
+            }
+
+            end += whitespacesLength + commentsLength;
+
+            commentsLength = getCommentsLength(end, border, codePoints);
+            whitespacesLength = getWhitespacesLength(end, border, codePoints);
+
+            newLineEncountered = getNewLineLength(end, border, codePoints) > 0;
+            firstNewLineStart = newLineEncountered ? end : -1;
+        }
+
+        int triviaEnd = end - 1;
+        start = end;
+
+        if (newLineEncountered) {
+
+            updateTokenEnd(triviaStart, triviaEnd);
+
+            int newLineIndex = firstNewLineStart;
+            newLineLength = getNewLineLength(newLineIndex, border, codePoints);
+
+            while (newLineIndex != -1) {
+                ResultIndentation resultIndentation = lexIndentation(newLineIndex, border, currentIndentationLevel, currentIndentationLength, codePoints);
+
+                int indentationLevel = resultIndentation.indentationLevel();
+                int indentationLength = resultIndentation.indentationLength();
+
+                updateIndentation(newLineIndex, newLineLength, currentIndentationLevel, indentationLevel);
+
+                currentIndentationLevel = indentationLevel;
+                currentIndentationLength = indentationLength;
+
+                newLineIndex += newLineLength;
+                newLineLength = getNewLineLength(newLineIndex, triviaEnd, codePoints);
+                newLineIndex = newLineLength > 0 ? newLineIndex : -1;
+            }
+
+        } else if (triviaEnd + 1 > border) {
+            updateTokenEnd(triviaStart, triviaEnd);
+        } else {
+            int tokenStart = triviaEnd + 1;
+            int tokenEnd = tokenStart;
+            int tokenLength = getCorrectTokenLength(tokenStart, tokenEnd, border, codePoints);
+
+            if (tokenLength == 0) {
+                tokenLength = getBadTokenLength(tokenEnd, border, codePoints);
+            }
+
+            tokenEnd += tokenLength;
+            recognize(tokenStart, tokenEnd - 1, codePoints, tokens);
+
+            start = tokenEnd;
+            end = tokenEnd;
+
+            int index = tokens.size() - 1;
+            tokens.setLeadingTriviaLength(index, triviaEnd - triviaStart + 1);
+            tokens.setStart(index, triviaStart);
+            addRealToken();
+        }
+        if (end == border + 1) {
+            updateIndentation(border + 1, 1, currentIndentationLevel, 0);
+            finished = true;
+        }
+    }
+
+    // Completes the real token just added to tokens
+    private void addRealToken() {
+        if (placeholderPending) {
+            // The first real token takes over the trivia collected by the placeholder and starts the text
+            int index = tokens.size() - 1;
+            tokens.setLeadingTriviaLength(index, tokens.trailingTriviaLength(0) + tokens.leadingTriviaLength(index));
+            tokens.setStart(index, 0);
+            removeFirst(1);
+            placeholderPending = false;
+        }
+        lastRealToken = tokens.size() - 1;
+    }
+
+    private void removeFirst(int count) {
+        tokens.removeFirst(count);
+        lastRealToken = Math.max(lastRealToken - count, -1);
+    }
+
+    private void updateTokenEnd(int triviaStart, int triviaEnd) {
+        int index = lastRealToken;
+        if (index == -1) return;
+
+        tokens.setEnd(index, triviaEnd);
+        tokens.setTrailingTriviaLength(index, tokens.trailingTriviaLength(index) + triviaEnd - triviaStart + 1);
+    }
+
+    private void updateIndentation(int index, int newLineLength, int oldLevelIndentation, int newLevelIndentation) {
+        if (oldLevelIndentation == newLevelIndentation) return;
+
+        int diff = newLevelIndentation - oldLevelIndentation;
+        int dx = diff > 0 ? 1 : -1;
+
+        for (int i = 0; i != diff; i += dx) {
+            tokens.addIndentation(index, index + newLineLength - 1, dx);
+        }
+    }
+}
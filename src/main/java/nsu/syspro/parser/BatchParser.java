@@ -0,0 +1,124 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.CodePointBuffer;
+import nsu.syspro.lexer.TokenStream;
+import syspro.tm.lexer.Token;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Lexes and parses many files at once, each file as a task of its own on an executor.
+ * Results come in the order of the input.
+ */
+public class BatchParser implements AutoCloseable {
+
+    /**
+     * Outcome of a single file: either {@code result} or the {@code error} lexing or parsing it failed with.
+     *
+     * @param path       the file, null if the source was given as a string
+     * @param readNanos  time spent reading the file
+     * @param lexNanos   time spent lexing
+     * @param parseNanos time spent parsing
+     */
+    public record FileResult(Path path, MyParseResult result, Exception error,
+                             long readNanos, long lexNanos, long parseNanos) {
+    }
+
+    private final MyParser parser;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Parses on a work-stealing pool with a thread per core, which is shut down by {@link #close}.
+     */
+    public BatchParser(MyParser parser) {
+        this(parser, Executors.newWorkStealingPool(), true);
+    }
+
+    /**
+     * Parses on the given executor, e.g. {@link Executors#newVirtualThreadPerTaskExecutor()},
+     * which is left running by {@link #close}.
+     */
+    public BatchParser(MyParser parser, ExecutorService executor) {
+        this(parser, executor, false);
+    }
+
+    private BatchParser(MyParser parser, ExecutorService executor, boolean ownsExecutor) {
+        this.parser = parser;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    public List<FileResult> parseSources(List<String> sources) throws InterruptedException {
+        List<Callable<FileResult>> tasks = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            tasks.add(() -> parse(null, source, 0));
+        }
+        return run(tasks);
+    }
+
+    /**
+     * Parses UTF-8 encoded files.
+     */
+    public List<FileResult> parseFiles(List<Path> paths) throws InterruptedException {
+        List<Callable<FileResult>> tasks = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            tasks.add(() -> {
+                long start = System.nanoTime();
+                String source;
+                try {
+                    source = Files.readString(path, StandardCharsets.UTF_8);
+                } catch (Exception e) {
+                    return new FileResult(path, null, e, System.nanoTime() - start, 0, 0);
+                }
+                return parse(path, source, System.nanoTime() - start);
+            });
+        }
+        return run(tasks);
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    private FileResult parse(Path path, String source, long readNanos) {
+        long start = System.nanoTime();
+        long lexNanos = -1;
+        try {
+            CodePointBuffer text = CodePointBuffer.of(source);
+            List<Token> tokens = new TokenStream(text).toList();
+            lexNanos = System.nanoTime() - start;
+            MyParseResult result = parser.parse(text, tokens);
+            return new FileResult(path, result, null, readNanos, lexNanos, System.nanoTime() - start - lexNanos);
+        } catch (RuntimeException e) {
+            long nanos = System.nanoTime() - start;
+            return lexNanos == -1 ? new FileResult(path, null, e, readNanos, nanos, 0)
+                    : new FileResult(path, null, e, readNanos, lexNanos, nanos - lexNanos);
+        }
+    }
+
+    private List<FileResult> run(List<Callable<FileResult>> tasks) throws InterruptedException {
+        List<FileResult> results = new ArrayList<>(tasks.size());
+        for (Future<FileResult> future : executor.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // Tasks catch what lexing and parsing throw, anything else is a bug
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return results;
+    }
+}
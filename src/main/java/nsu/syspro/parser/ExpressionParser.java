@@ -0,0 +1,228 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.Symbol;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.SyntaxKind;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses an expression by operator precedence into the unary, binary and IS expressions of the API,
+ * instead of going through grammar rules for every operator.
+ * <p>
+ * Operands are parsed by the engine using it: {@link #next} goes through the operators and gives out
+ * the kind to parse next, PRIMARY or TYPE_NAME. Operators and operands go to the {@link TreeBuilder} as they come,
+ * and are wrapped into expressions from their checkpoints once their precedence is known.
+ * Precedence is as in C#: unary operators bind tightest, IS binds like a comparison,
+ * and all binary operators are left associative.
+ */
+class ExpressionParser {
+
+    private static final int LOGICAL_OR = 1, LOGICAL_AND = 2, BITWISE_OR = 3, BITWISE_XOR = 4, BITWISE_AND = 5,
+            EQUALITY = 6, RELATIONAL = 7, SHIFT = 8, ADDITIVE = 9, MULTIPLICATIVE = 10, UNARY = 11;
+
+    private final List<Token> tokens;
+    private final ArrayList<Diagnostic> diagnostics;
+    private final ArrayList<TextSpan> invalidRanges;
+    private final TreeBuilder builder;
+
+    private int position;
+    // Whether an operand goes next, otherwise an operator or the end of the expression
+    private boolean operandNext = true;
+    // Checkpoint of the IS expression whose type name is being parsed, or -1
+    private int pendingIs = -1;
+
+    // Checkpoints where the operands start, an operand may be missing
+    private int[] operandStarts = new int[8];
+    private int operandCount = 0;
+    // Kinds of the expressions the operators make, with the checkpoints of unary operators
+    private SyntaxKind[] operators = new SyntaxKind[8];
+    private int[] operatorStarts = new int[8];
+    private int operatorCount = 0;
+
+    ExpressionParser(List<Token> tokens, ArrayList<Diagnostic> diagnostics, ArrayList<TextSpan> invalidRanges,
+                     TreeBuilder builder) {
+        this.tokens = tokens;
+        this.diagnostics = diagnostics;
+        this.invalidRanges = invalidRanges;
+        this.builder = builder;
+    }
+
+    /**
+     * Goes on from the token at {@code position}, which is after the node parsed for the kind given out last time.
+     *
+     * @return kind of the node to parse before calling this again, or null if the expression has ended
+     */
+    AnySyntaxKind next(int position) {
+        this.position = position;
+        if (pendingIs != -1) {
+            finishIs();
+        }
+
+        while (this.position < tokens.size()) {
+            Token token = tokens.get(this.position);
+            AnySyntaxKind kind = token.toSyntaxKind();
+
+            if (operandNext) {
+                SyntaxKind unary = unaryKind(kind);
+                if (unary != null) {
+                    pushOperator(unary, builder.checkpoint());
+                    builder.terminal(kind, token);
+                    this.position++;
+                    continue;
+                }
+                operandNext = false;
+                pushOperand(builder.checkpoint());
+                if (canStart(AdditionalSyntaxKind.PRIMARY)) return AdditionalSyntaxKind.PRIMARY;
+                continue;
+            }
+
+            SyntaxKind binary = binaryKind(kind);
+            if (binary != null) {
+                reduce(precedence(binary));
+                pushOperator(binary, -1);
+                builder.terminal(kind, token);
+                this.position++;
+                operandNext = true;
+            } else if (kind == Keyword.IS) {
+                reduce(RELATIONAL);
+                pendingIs = operandStarts[operandCount - 1];
+                builder.terminal(kind, token);
+                this.position++;
+                if (canStart(AdditionalSyntaxKind.TYPE_NAME)) return AdditionalSyntaxKind.TYPE_NAME;
+                finishIs();
+            } else {
+                break;
+            }
+        }
+
+        if (operandNext) {
+            pushOperand(builder.checkpoint());
+            operandNext = false;
+        }
+        return null;
+    }
+
+    /**
+     * @return position of the first token after the part of the expression parsed so far
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * Puts the expression together, once {@link #next} has returned null.
+     */
+    void finish() {
+        reduce(0);
+    }
+
+    // Whether the next token can start a node of the kind, otherwise the token is skipped as unrecognised
+    private boolean canStart(AnySyntaxKind kind) {
+        if (position >= tokens.size()) return false;
+
+        Token token = tokens.get(position);
+        if (Grammar.firstSets.contains(kind, token.toSyntaxKind())) {
+            return true;
+        }
+        MyParser.reportUnrecognisedToken(token, diagnostics, invalidRanges);
+        position++;
+        return false;
+    }
+
+    // IS_EXPRESSION := Expression IS NameExpression IDENTIFIER?
+    private void finishIs() {
+        if (position < tokens.size() && tokens.get(position).toSyntaxKind() == SyntaxKind.IDENTIFIER) {
+            builder.terminal(SyntaxKind.IDENTIFIER, tokens.get(position++));
+        }
+        builder.wrap(pendingIs, SyntaxKind.IS_EXPRESSION);
+        pendingIs = -1;
+    }
+
+    private void pushOperand(int start) {
+        if (operandCount == operandStarts.length) {
+            operandStarts = Arrays.copyOf(operandStarts, operandCount * 2);
+        }
+        operandStarts[operandCount++] = start;
+    }
+
+    private void pushOperator(SyntaxKind kind, int start) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
+            operatorStarts = Arrays.copyOf(operatorStarts, operatorCount * 2);
+        }
+        operators[operatorCount] = kind;
+        operatorStarts[operatorCount++] = start;
+    }
+
+    // Builds the expressions of the operators on the stack that bind at least as tight as minPrecedence
+    private void reduce(int minPrecedence) {
+        while (operatorCount > 0 && precedence(operators[operatorCount - 1]) >= minPrecedence) {
+            operatorCount--;
+            SyntaxKind kind = operators[operatorCount];
+            // The right operand is inside the expression anyway
+            operandCount--;
+            int start = precedence(kind) == UNARY ? operatorStarts[operatorCount] : operandStarts[--operandCount];
+            builder.wrap(start, kind);
+            pushOperand(start);
+        }
+    }
+
+    private static SyntaxKind unaryKind(AnySyntaxKind kind) {
+        return switch (kind) {
+            case Symbol.EXCLAMATION -> SyntaxKind.LOGICAL_NOT_EXPRESSION;
+            case Symbol.MINUS -> SyntaxKind.UNARY_MINUS_EXPRESSION;
+            case Symbol.PLUS -> SyntaxKind.UNARY_PLUS_EXPRESSION;
+            case Symbol.TILDE -> SyntaxKind.BITWISE_NOT_EXPRESSION;
+            default -> null;
+        };
+    }
+
+    private static SyntaxKind binaryKind(AnySyntaxKind kind) {
+        return switch (kind) {
+            case Symbol.BAR_BAR -> SyntaxKind.LOGICAL_OR_EXPRESSION;
+            case Symbol.AMPERSAND_AMPERSAND -> SyntaxKind.LOGICAL_AND_EXPRESSION;
+            case Symbol.BAR -> SyntaxKind.BITWISE_OR_EXPRESSION;
+            case Symbol.CARET -> SyntaxKind.BITWISE_EXCLUSIVE_OR_EXPRESSION;
+            case Symbol.AMPERSAND -> SyntaxKind.BITWISE_AND_EXPRESSION;
+            case Symbol.EQUALS_EQUALS -> SyntaxKind.EQUALS_EXPRESSION;
+            case Symbol.EXCLAMATION_EQUALS -> SyntaxKind.NOT_EQUALS_EXPRESSION;
+            case Symbol.LESS_THAN -> SyntaxKind.LESS_THAN_EXPRESSION;
+            case Symbol.LESS_THAN_EQUALS -> SyntaxKind.LESS_THAN_OR_EQUAL_EXPRESSION;
+            case Symbol.GREATER_THAN -> SyntaxKind.GREATER_THAN_EXPRESSION;
+            case Symbol.GREATER_THAN_EQUALS -> SyntaxKind.GREATER_THAN_OR_EQUAL_EXPRESSION;
+            case Symbol.LESS_THAN_LESS_THAN -> SyntaxKind.BITWISE_LEFT_SHIFT_EXPRESSION;
+            case Symbol.GREATER_THAN_GREATER_THAN -> SyntaxKind.BITWISE_RIGHT_SHIFT_EXPRESSION;
+            case Symbol.PLUS -> SyntaxKind.ADD_EXPRESSION;
+            case Symbol.MINUS -> SyntaxKind.SUBTRACT_EXPRESSION;
+            case Symbol.ASTERISK -> SyntaxKind.MULTIPLY_EXPRESSION;
+            case Symbol.SLASH -> SyntaxKind.DIVIDE_EXPRESSION;
+            case Symbol.PERCENT -> SyntaxKind.MODULO_EXPRESSION;
+            default -> null;
+        };
+    }
+
+    private static int precedence(SyntaxKind kind) {
+        return switch (kind) {
+            case LOGICAL_OR_EXPRESSION -> LOGICAL_OR;
+            case LOGICAL_AND_EXPRESSION -> LOGICAL_AND;
+            case BITWISE_OR_EXPRESSION -> BITWISE_OR;
+            case BITWISE_EXCLUSIVE_OR_EXPRESSION -> BITWISE_XOR;
+            case BITWISE_AND_EXPRESSION -> BITWISE_AND;
+            case EQUALS_EXPRESSION, NOT_EQUALS_EXPRESSION -> EQUALITY;
+            case LESS_THAN_EXPRESSION, LESS_THAN_OR_EQUAL_EXPRESSION,
+                 GREATER_THAN_EXPRESSION, GREATER_THAN_OR_EQUAL_EXPRESSION -> RELATIONAL;
+            case BITWISE_LEFT_SHIFT_EXPRESSION, BITWISE_RIGHT_SHIFT_EXPRESSION -> SHIFT;
+            case ADD_EXPRESSION, SUBTRACT_EXPRESSION -> ADDITIVE;
+            case MULTIPLY_EXPRESSION, DIVIDE_EXPRESSION, MODULO_EXPRESSION -> MULTIPLICATIVE;
+            default -> UNARY;
+        };
+    }
+}
@@ -0,0 +1,93 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.parser.nonterms.ListNONTERM;
+import nsu.syspro.parser.nonterms.OrNONTERM;
+import nsu.syspro.parser.nonterms.QuestionNONTERM;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.Symbol;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxKind;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * FIRST sets of every kind in the rules, as bit sets of {@link #terminalIndex terminal indices}.
+ * <p>
+ * A kind that starts with optional parts (lists and questions) can start with anything they start with,
+ * plus whatever the first mandatory part starts with.
+ */
+public class FirstSets {
+
+    private static final int KEYWORD_OFFSET = SyntaxKind.SOURCE_TEXT.ordinal();
+    private static final int SYMBOL_OFFSET = KEYWORD_OFFSET + Keyword.values().length;
+
+    private final HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules;
+    private final HashMap<AnySyntaxKind, BitSet> sets = new HashMap<>();
+
+    public FirstSets(HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+        this.rules = rules;
+        for (var rule : rules.entrySet()) {
+            calculate(rule.getKey());
+            for (AnySyntaxKind term : rule.getValue()) {
+                calculate(term);
+            }
+        }
+    }
+
+    /**
+     * @param terminal kind of a token
+     * @return whether a phrase of {@code kind} can start with {@code terminal}
+     */
+    public boolean contains(AnySyntaxKind kind, AnySyntaxKind terminal) {
+        return sets.get(kind).get(terminalIndex(terminal));
+    }
+
+    /**
+     * Dense index of a terminal kind: terminal {@link SyntaxKind}s, then keywords, then symbols.
+     */
+    public static int terminalIndex(AnySyntaxKind terminal) {
+        return switch (terminal) {
+            case SyntaxKind kind -> kind.ordinal();
+            case Keyword keyword -> KEYWORD_OFFSET + keyword.ordinal();
+            case Symbol symbol -> SYMBOL_OFFSET + symbol.ordinal();
+            default -> throw new IllegalArgumentException("Not a terminal: " + terminal);
+        };
+    }
+
+    private BitSet calculate(AnySyntaxKind kind) {
+        BitSet result = sets.get(kind);
+        if (result != null) return result;
+
+        result = new BitSet();
+        switch (kind) {
+            case ListNONTERM list -> result.or(calculate(list.getExtendedKind()));
+            case QuestionNONTERM question -> result.or(calculate(question.getExtendedKind()));
+            case OrNONTERM or -> {
+                for (AnySyntaxKind orTerm : or.getPossibleKinds()) {
+                    result.or(calculate(orTerm));
+                }
+            }
+            default -> {
+                if (kind.isTerminal()) {
+                    result.set(terminalIndex(kind));
+                    break;
+                }
+
+                List<AnySyntaxKind> terms = rules.get(kind);
+
+                int i = 0;
+                while (i < terms.size() && (terms.get(i) instanceof ListNONTERM || terms.get(i) instanceof QuestionNONTERM)) {
+                    result.or(calculate(terms.get(i)));
+                    i++;
+                }
+                if (i < terms.size()) {
+                    result.or(calculate(terms.get(i)));
+                }
+            }
+        }
+        sets.put(kind, result);
+        return result;
+    }
+}
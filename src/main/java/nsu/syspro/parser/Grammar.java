@@ -10,7 +10,9 @@ import syspro.tm.parser.AnySyntaxKind;
 import syspro.tm.parser.SyntaxKind;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public record Grammar() {
 
@@ -382,71 +384,37 @@ public record Grammar() {
         // ----------------------------------------------------------------------------------------------------------------
 
         // Expression
-        // EXPRESSION := (PRIMARY | UNARY_EXPRESSION) EXPRESSION_HATCH?
+        // EXPRESSION := UNARY_OPERATOR* PRIMARY (BINARY_OPERATOR UNARY_OPERATOR* PRIMARY | 'IS' TYPE_NAME IDENTIFIER?)*
+        // UNARY_OPERATOR := '!' | '-' | '+' | '~'
+        // Parsed by operator precedence in ExpressionParser, the rule only gives its FIRST set
         rules.put(AdditionalSyntaxKind.EXPRESSION, List.of(
                 new OrNONTERM(List.of(
                         AdditionalSyntaxKind.PRIMARY,
-                        AdditionalSyntaxKind.UNARY_EXPRESSION
-                )),
-                new QuestionNONTERM(AdditionalSyntaxKind.EXPRESSION_HATCH)
-        ));
-
-        // UNARY_EXPRESSION := (! | - | + | ~) EXPRESSION
-        rules.put(AdditionalSyntaxKind.UNARY_EXPRESSION, List.of(
-                new OrNONTERM(List.of(
                         Symbol.EXCLAMATION,
                         Symbol.MINUS,
                         Symbol.PLUS,
                         Symbol.TILDE
-                )),
-                AdditionalSyntaxKind.EXPRESSION
-        ));
-
-        // EXPRESSION_HATCH := BINARY_EXPRESSION_TAIL* | IS_EXPRESSION
-        rules.put(AdditionalSyntaxKind.EXPRESSION_HATCH, List.of(
-                new OrNONTERM(List.of(
-                        new ListNONTERM(AdditionalSyntaxKind.BINARY_EXPRESSION_TAIL),
-                        SyntaxKind.IS_EXPRESSION
-                )),
-                new QuestionNONTERM(SyntaxKind.IDENTIFIER)
-        ));
-
-        // BINARY_EXPRESSION_TAIL := ( '+' | '-' | '*' | '/' | '%' | '==' |
-        // '!=' | '<' | '>' | '<=' | '>=' | '&&' | '||' | '&' | '|' | '^' | '<<' | '>>') EXPRESSION
-        rules.put(AdditionalSyntaxKind.BINARY_EXPRESSION_TAIL, List.of(
-                new OrNONTERM(List.of(
-                        Symbol.PLUS,
-                        Symbol.MINUS,
-                        Symbol.ASTERISK,
-                        Symbol.SLASH,
-                        Symbol.PERCENT,
-                        Symbol.EQUALS_EQUALS,
-                        Symbol.EXCLAMATION_EQUALS,
-                        Symbol.LESS_THAN,
-                        Symbol.GREATER_THAN,
-                        Symbol.LESS_THAN_EQUALS,
-                        Symbol.GREATER_THAN_EQUALS,
-                        Symbol.AMPERSAND_AMPERSAND,
-                        Symbol.BAR_BAR,
-                        Symbol.AMPERSAND,
-                        Symbol.BAR,
-                        Symbol.CARET,
-                        Symbol.LESS_THAN_LESS_THAN,
-                        Symbol.GREATER_THAN_GREATER_THAN
-                )),
-                AdditionalSyntaxKind.EXPRESSION
-        ));
-
-        // IS_EXPRESSION := 'IS' TYPE_NAME IDENTIFIER?
-        rules.put(SyntaxKind.IS_EXPRESSION, List.of(
-                Keyword.IS,
-                AdditionalSyntaxKind.TYPE_NAME,
-                new QuestionNONTERM(SyntaxKind.IDENTIFIER)
+                ))
         ));
         // ----------------------------------------------------------------------------------------------------------------
 
 
     }
 
+    // After the static block above, so that all rules are in place
+    public final static FirstSets firstSets = new FirstSets(rules);
+    public final static PredictionTable predictionTable = new PredictionTable(rules, firstSets);
 
+    // LL(1) conflicts resolved on purpose by taking the first alternative: an identifier in an ATOM is a name,
+    // not a type, and a statement starting with a PRIMARY is tried as an assignment before an expression
+    static {
+        Set<List<AnySyntaxKind>> accepted = new HashSet<>();
+        accepted.add(List.of(SyntaxKind.IDENTIFIER, SyntaxKind.IDENTIFIER, AdditionalSyntaxKind.TYPE_NAME));
+        for (AnySyntaxKind terminal : PredictionTable.terminals()) {
+            if (firstSets.contains(AdditionalSyntaxKind.PRIMARY, terminal)) {
+                accepted.add(List.of(terminal, SyntaxKind.ASSIGNMENT_STATEMENT, SyntaxKind.EXPRESSION_STATEMENT));
+            }
+        }
+        predictionTable.checkConflicts(accepted);
+    }
 }
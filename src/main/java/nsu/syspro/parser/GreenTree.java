@@ -0,0 +1,295 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.TokenBuffer;
+import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.Symbol;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxKind;
+import syspro.tm.parser.SyntaxNode;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Syntax tree kept in parallel arrays instead of a node object per node, for trees that stay in memory.
+ * <p>
+ * Nodes are numbered in pre-order, a node stores its kind and the index of its token in a {@link TokenBuffer}.
+ * The slots of node {@code i} are {@code children[childOffsets[i]]} to {@code children[childOffsets[i + 1] - 1]},
+ * a missing (null) slot holds no node.
+ * The {@link SyntaxNode}s and {@link Token}s handed out are made on demand, two views of the same node are equal.
+ */
+public class GreenTree {
+
+    private static final int NONE = -1;
+
+    // All kinds a tree can have, a kind is stored as its index here
+    private static final AnySyntaxKind[] KINDS;
+    private static final int KEYWORDS_OFFSET, SYMBOLS_OFFSET, ADDITIONAL_OFFSET;
+    // Tells serialized trees with other kinds apart
+    private static final int KINDS_FINGERPRINT;
+
+    static {
+        ArrayList<AnySyntaxKind> kinds = new ArrayList<>(List.of(SyntaxKind.values()));
+        KEYWORDS_OFFSET = kinds.size();
+        kinds.addAll(List.of(Keyword.values()));
+        SYMBOLS_OFFSET = kinds.size();
+        kinds.addAll(List.of(Symbol.values()));
+        ADDITIONAL_OFFSET = kinds.size();
+        kinds.addAll(List.of(AdditionalSyntaxKind.values()));
+        KINDS = kinds.toArray(new AnySyntaxKind[0]);
+        int fingerprint = 1;
+        for (AnySyntaxKind kind : KINDS) {
+            fingerprint = 31 * fingerprint + kind.toString().hashCode();
+        }
+        KINDS_FINGERPRINT = fingerprint;
+    }
+
+    private final TokenBuffer tokens;
+    private final short[] kinds;
+    private final int[] childOffsets;
+    private final int[] children;
+    private final int[] tokenIndices;
+
+    private GreenTree(TokenBuffer tokens, short[] kinds, int[] childOffsets, int[] children, int[] tokenIndices) {
+        this.tokens = tokens;
+        this.kinds = kinds;
+        this.childOffsets = childOffsets;
+        this.children = children;
+        this.tokenIndices = tokenIndices;
+    }
+
+    /**
+     * Copies the tree of {@code root} into arrays, a root of a {@link GreenTree} gives that tree.
+     *
+     * @param tokens the tokens the tree was parsed from, all tokens of the tree must be among them
+     */
+    public static GreenTree of(SyntaxNode root, List<Token> tokens) {
+        if (root instanceof Node node && node.index == 0) return node.tree;
+        return new Compactor(tokens).compact(root);
+    }
+
+    /**
+     * @return view of the root node
+     */
+    public SyntaxNode root() {
+        return new Node(this, 0);
+    }
+
+    /**
+     * @return the tokens the nodes refer to
+     */
+    public TokenBuffer tokens() {
+        return tokens;
+    }
+
+    /**
+     * @return number of nodes
+     */
+    public int size() {
+        return kinds.length;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeTo} puts
+     */
+    public int serializedSize() {
+        return 3 * Integer.BYTES + kinds.length * (Short.BYTES + Integer.BYTES)
+                + (childOffsets.length + children.length) * Integer.BYTES;
+    }
+
+    /**
+     * Puts the arrays in the byte order of {@code out}, but not the tokens.
+     */
+    public void writeTo(ByteBuffer out) {
+        out.putInt(KINDS_FINGERPRINT).putInt(kinds.length).putInt(children.length);
+        out.asShortBuffer().put(kinds);
+        out.position(out.position() + kinds.length * Short.BYTES);
+        for (int[] array : new int[][]{childOffsets, children, tokenIndices}) {
+            out.asIntBuffer().put(array);
+            out.position(out.position() + array.length * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Reads what {@link #writeTo} put, in the byte order of {@code in}.
+     *
+     * @param tokens the tokens of the tree that was written
+     * @throws IllegalStateException     if the tree was written with other kinds of nodes
+     * @throws BufferUnderflowException if {@code in} ends before what it says it holds
+     */
+    public static GreenTree readFrom(ByteBuffer in, TokenBuffer tokens) {
+        if (in.getInt() != KINDS_FINGERPRINT) {
+            throw new IllegalStateException("Tree written with other syntax kinds");
+        }
+        int size = in.getInt(), childCount = in.getInt();
+        checkCount(in, size, Short.BYTES + 2 * Integer.BYTES);
+        checkCount(in, childCount, Integer.BYTES);
+        short[] kinds = new short[size];
+        in.asShortBuffer().get(kinds);
+        in.position(in.position() + size * Short.BYTES);
+        int[] childOffsets = readInts(in, size + 1);
+        int[] children = readInts(in, childCount);
+        int[] tokenIndices = readInts(in, size);
+        return new GreenTree(tokens, kinds, childOffsets, children, tokenIndices);
+    }
+
+    // Fails on a count that does not fit in the rest of the buffer, as in a corrupted one, instead of allocating for it
+    static void checkCount(ByteBuffer in, int count, int bytesEach) {
+        if (count < 0 || (long) count * bytesEach > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] array = new int[count];
+        in.asIntBuffer().get(array);
+        in.position(in.position() + count * Integer.BYTES);
+        return array;
+    }
+
+    private static int kindId(AnySyntaxKind kind) {
+        return switch (kind) {
+            case SyntaxKind syntaxKind -> syntaxKind.ordinal();
+            case Keyword keyword -> KEYWORDS_OFFSET + keyword.ordinal();
+            case Symbol symbol -> SYMBOLS_OFFSET + symbol.ordinal();
+            case AdditionalSyntaxKind additional -> ADDITIONAL_OFFSET + additional.ordinal();
+            default -> throw new RuntimeException("Unknown node kind: " + kind);
+        };
+    }
+
+    // Lays out a tree in pre-order without recursion, trees can be as deep as the input is long
+    private static class Compactor {
+
+        private final List<Token> tokens;
+        private IdentityHashMap<Token, Integer> tokenIndices;
+        // Tokens of the tree are usually met in the order of the list, so they are looked for from here first
+        private int nextToken = 0;
+
+        private short[] kinds = new short[64];
+        private int[] childOffsets = new int[65];
+        private int[] nodeTokens = new int[64];
+        private int size = 0;
+        // A node gets its slots in children when it is laid out, so the slots of the nodes are in node order
+        private int[] children = new int[64];
+        private int childCount = 0;
+
+        // Open nodes with their next slot
+        private SyntaxNode[] openNodes = new SyntaxNode[16];
+        private int[] openIndices = new int[16];
+        private int[] openSlots = new int[16];
+        private int depth = 0;
+
+        Compactor(List<Token> tokens) {
+            this.tokens = tokens;
+        }
+
+        GreenTree compact(SyntaxNode root) {
+            open(root, add(root));
+            while (depth > 0) {
+                int top = depth - 1;
+                if (openSlots[top] == openNodes[top].slotCount()) {
+                    openNodes[top] = null;
+                    depth--;
+                    continue;
+                }
+
+                int slot = openSlots[top]++;
+                SyntaxNode child = openNodes[top].slot(slot);
+                if (child == null) continue;
+                int index = add(child);
+                children[childOffsets[openIndices[top]] + slot] = index;
+                if (child.slotCount() > 0) {
+                    open(child, index);
+                }
+            }
+            return new GreenTree(TokenBuffer.of(tokens), Arrays.copyOf(kinds, size), Arrays.copyOf(childOffsets, size + 1),
+                    Arrays.copyOf(children, childCount), Arrays.copyOf(nodeTokens, size));
+        }
+
+        private int add(SyntaxNode node) {
+            if (size == kinds.length) {
+                int capacity = size * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                childOffsets = Arrays.copyOf(childOffsets, capacity + 1);
+                nodeTokens = Arrays.copyOf(nodeTokens, capacity);
+            }
+            int slotCount = node.slotCount();
+            if (childCount + slotCount > children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childCount + slotCount));
+            }
+            Arrays.fill(children, childCount, childCount + slotCount, NONE);
+            childCount += slotCount;
+
+            kinds[size] = (short) kindId(node.kind());
+            childOffsets[size + 1] = childCount;
+            nodeTokens[size] = node.token() == null ? NONE : tokenIndex(node.token());
+            return size++;
+        }
+
+        private void open(SyntaxNode node, int index) {
+            if (depth == openNodes.length) {
+                int capacity = depth * 2;
+                openNodes = Arrays.copyOf(openNodes, capacity);
+                openIndices = Arrays.copyOf(openIndices, capacity);
+                openSlots = Arrays.copyOf(openSlots, capacity);
+            }
+            openNodes[depth] = node;
+            openIndices[depth] = index;
+            openSlots[depth] = 0;
+            depth++;
+        }
+
+        private int tokenIndex(Token token) {
+            for (int i = nextToken; i < tokens.size() && i < nextToken + 8; i++) {
+                if (tokens.get(i) == token) {
+                    nextToken = i + 1;
+                    return i;
+                }
+            }
+            if (tokenIndices == null) {
+                tokenIndices = new IdentityHashMap<>(tokens.size());
+                for (int i = 0; i < tokens.size(); i++) {
+                    tokenIndices.put(tokens.get(i), i);
+                }
+            }
+            Integer index = tokenIndices.get(token);
+            if (index == null) {
+                throw new IllegalArgumentException("Token is not in the token list: " + token);
+            }
+            nextToken = index + 1;
+            return index;
+        }
+    }
+
+    private record Node(GreenTree tree, int index) implements SyntaxNode {
+
+        @Override
+        public AnySyntaxKind kind() {
+            return KINDS[tree.kinds[index]];
+        }
+
+        @Override
+        public int slotCount() {
+            return tree.childOffsets[index + 1] - tree.childOffsets[index];
+        }
+
+        @Override
+        public SyntaxNode slot(int slot) {
+            if (slot < 0 || slot >= slotCount()) return null;
+            int child = tree.children[tree.childOffsets[index] + slot];
+            return child == NONE ? null : new Node(tree, child);
+        }
+
+        @Override
+        public Token token() {
+            int token = tree.tokenIndices[index];
+            return token == NONE ? null : tree.tokens.token(token);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package nsu.syspro.parser;
 
+import nsu.syspro.lexer.CodePointBuffer;
+import syspro.tm.lexer.Token;
 import syspro.tm.parser.Diagnostic;
 import syspro.tm.parser.ParseResult;
 import syspro.tm.parser.SyntaxNode;
@@ -7,6 +9,8 @@ import syspro.tm.parser.TextSpan;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class MyParseResult implements ParseResult {
 
@@ -14,12 +18,105 @@ public class MyParseResult implements ParseResult {
     ArrayList<TextSpan> invalidRanges;
     ArrayList<Diagnostic> diagnostics;
 
+    // What MyParser.reparse needs, null unless produced by MyParser. A compact result keeps its source as a String
+    // instead of the text, which takes a byte per char for most sources instead of four per code point,
+    // and its tokens are a view of its TokenBuffer
+    CodePointBuffer text;
+    String code;
+    List<Token> tokens;
+    List<ReusableNode> reusableNodes;
+
+    private volatile PositionIndex positionIndex;
+    // Set for results shared between threads, whose collections are handed out read-only
+    private boolean immutable;
+
     public MyParseResult(SyntaxNode root, ArrayList<TextSpan> invalidRanges, ArrayList<Diagnostic> diagnostics) {
         this.root = root;
         this.invalidRanges = invalidRanges;
         this.diagnostics = diagnostics;
     }
 
+    MyParseResult(SyntaxNode root, ArrayList<TextSpan> invalidRanges, ArrayList<Diagnostic> diagnostics,
+                  CodePointBuffer text, List<Token> tokens, List<ReusableNode> reusableNodes) {
+        this(root, invalidRanges, diagnostics);
+        this.text = text;
+        this.tokens = tokens;
+        this.reusableNodes = reusableNodes;
+    }
+
+    /**
+     * @return the same result with the tree and the tokens kept in a {@link GreenTree}, which takes less than half
+     * the memory. Its nodes and tokens are made when they are asked for. It can still be reparsed, but without
+     * reusing subtrees.
+     */
+    public MyParseResult compact() {
+        if (root == null || tokens == null) {
+            throw new IllegalStateException("Only a result of MyParser can be compacted");
+        }
+        return compact(code != null ? code : new String(text.codePoints(), 0, text.size()));
+    }
+
+    /**
+     * Same as {@link #compact()}, keeping {@code code}, the source of this result, instead of a copy of it.
+     */
+    MyParseResult compact(String code) {
+        GreenTree tree = GreenTree.of(root, tokens);
+        MyParseResult result = new MyParseResult(tree.root(), invalidRanges, diagnostics, null, tree.tokens().asList(),
+                List.of());
+        result.code = code;
+        return result;
+    }
+
+    /**
+     * @return the same result as {@link #compact(String)}, which cannot be changed through any of its methods,
+     * so that it can be shared between threads
+     */
+    MyParseResult toImmutable(String code) {
+        MyParseResult result = compact(code);
+        result.immutable = true;
+        return result;
+    }
+
+    /**
+     * @return the text of the source, made again from it for a compact result
+     */
+    CodePointBuffer text() {
+        return text != null ? text : CodePointBuffer.of(code);
+    }
+
+    /**
+     * @return the node with the shortest full span containing {@code offset}, the innermost one if several are that
+     * short, or null. Indentation tokens are not returned, but count for the spans of the nodes they are in
+     */
+    public SyntaxNode nodeAt(int offset) {
+        return positionIndex().nodeAt(offset);
+    }
+
+    /**
+     * @return the token, other than an indentation one, whose full span contains {@code offset}, or null
+     */
+    public Token tokenAt(int offset) {
+        return positionIndex().tokenAt(offset);
+    }
+
+    /**
+     * @return the nodes whose full spans share a position with {@code range}, or contain its start
+     * if it is empty, in pre-order. Indentation tokens are left out as in {@link #nodeAt}
+     */
+    public List<SyntaxNode> nodesOverlapping(TextSpan range) {
+        return positionIndex().nodesOverlapping(range.start, range.start + range.length);
+    }
+
+    // Made on the first position query, as most results never get one
+    private PositionIndex positionIndex() {
+        PositionIndex index = positionIndex;
+        if (index == null) {
+            index = new PositionIndex(root, tokens);
+            positionIndex = index;
+        }
+        return index;
+    }
+
     @Override
     public SyntaxNode root() {
         return root;
@@ -27,11 +124,11 @@ public class MyParseResult implements ParseResult {
 
     @Override
     public Collection<TextSpan> invalidRanges() {
-        return invalidRanges;
+        return immutable ? Collections.unmodifiableList(invalidRanges) : invalidRanges;
     }
 
     @Override
     public Collection<Diagnostic> diagnostics() {
-        return diagnostics;
+        return immutable ? Collections.unmodifiableList(diagnostics) : diagnostics;
     }
 }
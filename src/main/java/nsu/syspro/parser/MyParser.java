@@ -1,6 +1,9 @@
 package nsu.syspro.parser;
 
-import nsu.syspro.lexer.MyLexer;
+import nsu.syspro.lexer.CodePointBuffer;
+import nsu.syspro.lexer.IncrementalLexer;
+import nsu.syspro.lexer.TextEdit;
+import nsu.syspro.lexer.TokenStream;
 import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
 import nsu.syspro.parser.nonterms.ListNONTERM;
 import nsu.syspro.parser.nonterms.OrNONTERM;
@@ -10,323 +13,531 @@ import syspro.tm.lexer.Symbol;
 import syspro.tm.lexer.Token;
 import syspro.tm.parser.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 public class MyParser implements Parser {
 
-    private int currentPosition = 0;
-
-    boolean isTerminal(AnySyntaxKind kind) {
-        return kind.isTerminal();
+    /**
+     * How the parsing tree is built: by recursive descent over the rules,
+     * or by {@link TableDrivenParser} from the {@link PredictionTable} of the rules.
+     * Both give the same trees and diagnostics.
+     */
+    public enum Engine {
+        RECURSIVE_DESCENT,
+        TABLE_DRIVEN
     }
 
-    void calculateFirst(AnySyntaxKind kind, List<AnySyntaxKind> result,
-                        HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
-        if (kind instanceof ListNONTERM) {
-            kind = ((ListNONTERM) kind).getExtendedKind();
-            calculateFirst(kind, result, rules);
-            return;
-        } else if (kind instanceof QuestionNONTERM) {
-            kind = ((QuestionNONTERM) kind).getExtendedKind();
-            calculateFirst(kind, result, rules);
-            return;
-        } else if (kind instanceof OrNONTERM) {
-            List<AnySyntaxKind> orTerms = ((OrNONTERM) kind).getPossibleKinds();
-            for (AnySyntaxKind orTerm : orTerms) {
-                calculateFirst(orTerm, result, rules);
-            }
-            return;
-        }
-
-
-        if (isTerminal(kind)) {
-            result.add(kind);
-            return;
+    // Kinds that MyParser.reparse can take over from the previous tree
+    static final Set<AnySyntaxKind> reusableKinds = Set.of(
+            SyntaxKind.TYPE_DEFINITION,
+            SyntaxKind.VARIABLE_DEFINITION,
+            SyntaxKind.FUNCTION_DEFINITION,
+            SyntaxKind.VARIABLE_DEFINITION_STATEMENT,
+            SyntaxKind.ASSIGNMENT_STATEMENT,
+            SyntaxKind.EXPRESSION_STATEMENT,
+            SyntaxKind.RETURN_STATEMENT,
+            SyntaxKind.BREAK_STATEMENT,
+            SyntaxKind.CONTINUE_STATEMENT,
+            SyntaxKind.IF_STATEMENT,
+            SyntaxKind.FOR_STATEMENT,
+            SyntaxKind.WHILE_STATEMENT
+    );
+
+    // Nesting of parseRecursive calls after which the rest of a subtree is parsed by TableDrivenParser
+    public static final int DEFAULT_MAX_RECURSION_DEPTH = 128;
+
+    // Only configuration, the state of a parse is in its ParseRun, so that one MyParser can be used
+    // by several threads at once
+    private final Engine engine;
+    private final int maxRecursionDepth;
+    private final boolean buildSyntaxTreeDirectly;
+
+    /**
+     * @param maxRecursionDepth       how deep {@link Engine#RECURSIVE_DESCENT} recurses before going on
+     *                                with an explicit stack, which bounds the thread stack the parser needs
+     * @param buildSyntaxTreeDirectly whether to give every node its final shape as soon as it is parsed
+     *                                instead of building the parsing tree and post processing it afterwards;
+     *                                the trees are the same
+     */
+    public MyParser(Engine engine, int maxRecursionDepth, boolean buildSyntaxTreeDirectly) {
+        if (maxRecursionDepth < 1) {
+            throw new IllegalArgumentException("maxRecursionDepth must be positive: " + maxRecursionDepth);
         }
+        this.engine = engine;
+        this.maxRecursionDepth = maxRecursionDepth;
+        this.buildSyntaxTreeDirectly = buildSyntaxTreeDirectly;
+    }
 
-        List<AnySyntaxKind> terms = rules.get(kind);
-
-        int i = 0;
-        while (i < terms.size() && (terms.get(i) instanceof ListNONTERM || terms.get(i) instanceof QuestionNONTERM)) {
-            AnySyntaxKind extendedTerm = terms.get(i);
+    public MyParser(Engine engine, int maxRecursionDepth) {
+        this(engine, maxRecursionDepth, false);
+    }
 
-            if (extendedTerm instanceof ListNONTERM) {
-                extendedTerm = ((ListNONTERM) extendedTerm).getExtendedKind();
-            } else if (extendedTerm instanceof QuestionNONTERM) {
-                extendedTerm = ((QuestionNONTERM) extendedTerm).getExtendedKind();
-            }
+    public MyParser(Engine engine) {
+        this(engine, DEFAULT_MAX_RECURSION_DEPTH);
+    }
 
-            calculateFirst(extendedTerm, result, rules);
-            i++;
-        }
+    public MyParser() {
+        this(Engine.RECURSIVE_DESCENT);
+    }
 
-        if (i == terms.size()) return;
-        calculateFirst(terms.get(i), result, rules);
+    boolean isTerminal(AnySyntaxKind kind) {
+        return kind.isTerminal();
     }
 
-    boolean isGenerativeKind(AnySyntaxKind kind) {
+    static boolean isGenerativeKind(AnySyntaxKind kind) {
         return kind instanceof OrNONTERM || kind instanceof QuestionNONTERM || kind instanceof ListNONTERM;
     }
 
 
+    // Nodes whose post processed forms go to result, handed over to then once all of them are done
+    private static final class PostProcessing {
+        final List<SyntaxNode> nodes;
+        final Consumer<List<SyntaxNode>> then;
+        final List<SyntaxNode> result = new ArrayList<>();
+        int next = 0;
+
+        PostProcessing(List<SyntaxNode> nodes, Consumer<List<SyntaxNode>> then) {
+            this.nodes = nodes;
+            this.then = then;
+        }
+    }
+
+    /**
+     * Replaces the grammar helper nodes with the nodes of the API.
+     * Works on an explicit stack, so the depth of the tree is not limited by the thread stack.
+     */
     List<SyntaxNode> postProcessParsingTree(List<SyntaxNode> currentNodes) {
         if (currentNodes == null) return null;
 
-        List<SyntaxNode> result = new ArrayList<>();
-        for (SyntaxNode currentNode : currentNodes) {
-            MySyntaxNode myCurrentNode = (MySyntaxNode) currentNode;
-            AnySyntaxKind currentKind = currentNode.kind();
+        ArrayDeque<PostProcessing> stack = new ArrayDeque<>();
+        PostProcessing root = new PostProcessing(currentNodes, _ -> {});
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            PostProcessing frame = stack.peek();
+            if (frame.next == frame.nodes.size()) {
+                stack.pop();
+                frame.then.accept(frame.result);
+                continue;
+            }
+            postProcessNode(stack, frame.nodes.get(frame.next++), frame.result);
+        }
+        return root.result;
+    }
+
+    // Post processes children, the result is null for null children
+    private void postProcessLater(ArrayDeque<PostProcessing> stack, List<SyntaxNode> children,
+                                  Consumer<List<SyntaxNode>> then) {
+        if (children == null) {
+            then.accept(null);
+        } else {
+            stack.push(new PostProcessing(children, then));
+        }
+    }
 
-            if (isGenerativeKind(currentKind) ||
-                    (currentKind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) currentKind).isRemovable())
-            ) {
-                List<SyntaxNode> children = postProcessParsingTree(myCurrentNode.syntaxNodes);
+    private void postProcessNode(ArrayDeque<PostProcessing> stack, SyntaxNode currentNode, List<SyntaxNode> result) {
+        MySyntaxNode myCurrentNode = (MySyntaxNode) currentNode;
+        AnySyntaxKind currentKind = currentNode.kind();
+
+        if (currentKind == AdditionalSyntaxKind.REUSED) {
+            result.addAll(myCurrentNode.syntaxNodes);
+        } else if (isGenerativeKind(currentKind) ||
+                (currentKind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) currentKind).isRemovable())
+        ) {
+            postProcessLater(stack, myCurrentNode.syntaxNodes, children -> {
                 if (children != null) {
                     result.addAll(children);
                 }
-            } else if (currentKind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) currentKind).isListNonTerminal()) {
-                List<SyntaxNode> children = postProcessParsingTree(myCurrentNode.syntaxNodes);
-
+            });
+        } else if (currentKind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) currentKind).isListNonTerminal()) {
+            postProcessLater(stack, myCurrentNode.syntaxNodes, children -> {
                 MySyntaxNode node = new MySyntaxNode(AdditionalSyntaxKind.additionalListToApiList.get(currentKind));
                 node.addChildren(children);
                 result.add(node);
-            } else if (currentKind == SyntaxKind.BOOLEAN) {
-                boolean value = ((BooleanLiteralToken) currentNode.token()).value;
-                AnySyntaxKind boolean_literal = value ? SyntaxKind.TRUE_LITERAL_EXPRESSION : SyntaxKind.FALSE_LITERAL_EXPRESSION;
-                MySyntaxNode node = new MySyntaxNode(boolean_literal);
-                node.addChild(new MySyntaxNode(currentNode.kind(), currentNode.token()));
-                result.add(node);
+            });
+        } else if (currentKind == SyntaxKind.BOOLEAN) {
+            result.add(booleanLiteral(currentNode.kind(), currentNode.token()));
+        }
+        else if (currentKind == AdditionalSyntaxKind.PRIMARY){
+            if (myCurrentNode.syntaxNodes == null) {
+                // Missing operand, the token in its place is reported as unrecognised
+                return;
             }
-            else if (currentKind == AdditionalSyntaxKind.PRIMARY){
-                SyntaxNode atom = myCurrentNode.syntaxNodes.getFirst();
-                ArrayList<SyntaxNode> processedAtom = (ArrayList<SyntaxNode>) postProcessParsingTree(List.of(atom));
-
+            SyntaxNode atom = myCurrentNode.syntaxNodes.getFirst();
+            postProcessLater(stack, List.of(atom), processedAtom -> {
                 // always ListNONTERM according to Grammar
                 MySyntaxNode listNonTerm = (MySyntaxNode) myCurrentNode.syntaxNodes.get(1);
 
                 List<SyntaxNode> tail = listNonTerm.syntaxNodes;
                 if (tail == null) {
                     result.addAll(processedAtom);
-                    continue;
+                    return;
                 }
-                for (SyntaxNode node : tail) {
-                    // node is always OrNONTERM according to Grammar, and always has single child,
-                    // which is DOT_EXPRESSION, PARENTHESIZED_LIST_EXPRESSION or INDEX_EXPRESSION
-                    assert node.slotCount() == 1 : "slotCount != 1";
-                    MySyntaxNode myNode = (MySyntaxNode) node.slot(0);
-
-                    AnySyntaxKind kindToExtend = switch (myNode.kind()){
-                        case AdditionalSyntaxKind.DOT_EXPRESSION -> SyntaxKind.MEMBER_ACCESS_EXPRESSION;
-                        case AdditionalSyntaxKind.PARENTHESIZED_LIST_EXPRESSION -> SyntaxKind.INVOCATION_EXPRESSION;
-                        case AdditionalSyntaxKind.INDEX_EXPRESSION -> SyntaxKind.INDEX_EXPRESSION;
-                        default -> throw new RuntimeException("Unknown node kind: " + myNode.kind());
-                    };
-
-                    List<SyntaxNode> processedNode = postProcessParsingTree(List.of(myNode));
-                    processedAtom.addAll(processedNode);
-
-                    MySyntaxNode extendedNode = new MySyntaxNode(kindToExtend);
-                    extendedNode.addChildren(processedAtom);
-
-                    processedAtom = new ArrayList<>(List.of(extendedNode));
+                extendPrimary(stack, tail, 0, processedAtom, result);
+            });
+        }
+        else if (currentKind == AdditionalSyntaxKind.TYPE_NAME){
+            postProcessLater(stack, myCurrentNode.syntaxNodes, children -> {
+                // Missing type, as for a missing PRIMARY
+                if (children != null) {
+                    result.add(nameExpression(children));
                 }
-                result.add(processedAtom.getFirst());
-            }
-            else if (currentKind == AdditionalSyntaxKind.TYPE_NAME){
-                ArrayList<SyntaxNode> processedTypeNameSyntaxNodes =
-                        new ArrayList<>(postProcessParsingTree(myCurrentNode.syntaxNodes));
-
-                AnySyntaxKind extendedKind = switch (processedTypeNameSyntaxNodes.getFirst().kind()){
-                    case Symbol.QUESTION -> SyntaxKind.OPTION_NAME_EXPRESSION;
-                    case SyntaxKind.IDENTIFIER -> processedTypeNameSyntaxNodes.size() > 1 ?
-                            SyntaxKind.GENERIC_NAME_EXPRESSION : SyntaxKind.IDENTIFIER_NAME_EXPRESSION;
-                    default -> throw new RuntimeException("Unknown node kind: " + processedTypeNameSyntaxNodes.getFirst().kind());
-                };
-
-                MySyntaxNode extendedNode = new MySyntaxNode(extendedKind);
-                extendedNode.addChildren(processedTypeNameSyntaxNodes);
-                result.add(extendedNode);
-            }
-            else {
-                result.add(currentNode);
-                myCurrentNode.syntaxNodes = postProcessParsingTree(myCurrentNode.syntaxNodes);
-            }
+            });
+        }
+        else {
+            result.add(currentNode);
+            postProcessLater(stack, myCurrentNode.syntaxNodes, children -> myCurrentNode.syntaxNodes = children);
         }
-        return result;
     }
 
+    // Wraps the processed atom of a PRIMARY into the node of each part of its tail, starting with tail[index]
+    private void extendPrimary(ArrayDeque<PostProcessing> stack, List<SyntaxNode> tail, int index,
+                               List<SyntaxNode> processedAtom, List<SyntaxNode> result) {
+        if (index == tail.size()) {
+            result.add(processedAtom.getFirst());
+            return;
+        }
+        SyntaxNode node = tail.get(index);
+        // node is always OrNONTERM according to Grammar, and always has single child,
+        // which is DOT_EXPRESSION, PARENTHESIZED_LIST_EXPRESSION or INDEX_EXPRESSION
+        assert node.slotCount() == 1 : "slotCount != 1";
+        MySyntaxNode myNode = (MySyntaxNode) node.slot(0);
 
-    @Override
-    public ParseResult parse(String code) {
+        AnySyntaxKind kindToExtend = extendedPrimaryKind(myNode.kind());
 
-        List<Token> tokens = new MyLexer().lex(code);
+        postProcessLater(stack, List.of(myNode), processedNode -> {
+            processedAtom.addAll(processedNode);
 
-        ArrayList<Diagnostic> diagnostics = new ArrayList<>();
-        ArrayList<TextSpan> invalidRanges = new ArrayList<>();
-        MySyntaxNode root = new MySyntaxNode(SyntaxKind.SOURCE_TEXT);
+            MySyntaxNode extendedNode = new MySyntaxNode(kindToExtend);
+            extendedNode.addChildren(processedAtom);
 
-        parseRecursive(tokens, diagnostics, invalidRanges, root, Grammar.rules);
-        root.syntaxNodes = postProcessParsingTree(root.syntaxNodes);
+            extendPrimary(stack, tail, index + 1, new ArrayList<>(List.of(extendedNode)), result);
+        });
+    }
 
-        return new MyParseResult(root, invalidRanges, diagnostics);
+    static MySyntaxNode booleanLiteral(AnySyntaxKind kind, Token token) {
+        boolean value = ((BooleanLiteralToken) token).value;
+        AnySyntaxKind boolean_literal = value ? SyntaxKind.TRUE_LITERAL_EXPRESSION : SyntaxKind.FALSE_LITERAL_EXPRESSION;
+        MySyntaxNode node = new MySyntaxNode(boolean_literal);
+        node.addChild(new MySyntaxNode(kind, token));
+        return node;
     }
 
+    // Node of a TYPE_NAME with the given post processed children
+    static MySyntaxNode nameExpression(List<SyntaxNode> children) {
+        ArrayList<SyntaxNode> processedTypeNameSyntaxNodes = new ArrayList<>(children);
 
-    void parseRecursive(List<Token> tokens, ArrayList<Diagnostic> diagnostics, ArrayList<TextSpan> invalidRanges,
-                        MySyntaxNode currentNode, HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
-        if (currentPosition >= tokens.size()) {
-            return;
-        }
-        Token token = tokens.get(currentPosition);
+        AnySyntaxKind extendedKind = switch (processedTypeNameSyntaxNodes.getFirst().kind()){
+            case Symbol.QUESTION -> SyntaxKind.OPTION_NAME_EXPRESSION;
+            case SyntaxKind.IDENTIFIER -> processedTypeNameSyntaxNodes.size() > 1 ?
+                    SyntaxKind.GENERIC_NAME_EXPRESSION : SyntaxKind.IDENTIFIER_NAME_EXPRESSION;
+            default -> throw new RuntimeException("Unknown node kind: " + processedTypeNameSyntaxNodes.getFirst().kind());
+        };
 
-        AnySyntaxKind tokenKind = token.toSyntaxKind();
-        AnySyntaxKind currentKind = currentNode.kind();
+        MySyntaxNode extendedNode = new MySyntaxNode(extendedKind);
+        extendedNode.addChildren(processedTypeNameSyntaxNodes);
+        return extendedNode;
+    }
 
-        List<AnySyntaxKind> first = new ArrayList<>();
-        calculateFirst(currentKind, first, rules);
+    // Kind of the node a part of the tail of a PRIMARY makes of everything before it
+    static AnySyntaxKind extendedPrimaryKind(AnySyntaxKind tailKind) {
+        return switch (tailKind){
+            case AdditionalSyntaxKind.DOT_EXPRESSION -> SyntaxKind.MEMBER_ACCESS_EXPRESSION;
+            case AdditionalSyntaxKind.PARENTHESIZED_LIST_EXPRESSION -> SyntaxKind.INVOCATION_EXPRESSION;
+            case AdditionalSyntaxKind.INDEX_EXPRESSION -> SyntaxKind.INDEX_EXPRESSION;
+            default -> throw new RuntimeException("Unknown node kind: " + tailKind);
+        };
+    }
 
-        if (!first.contains(tokenKind) &&
-                ((currentKind instanceof QuestionNONTERM && !((QuestionNONTERM) currentKind).saveInParsingTree)
-                        || currentKind instanceof ListNONTERM)) {
-            return;
-        } else if (!first.contains(tokenKind) &&
-                (currentKind instanceof QuestionNONTERM && ((QuestionNONTERM) currentKind).saveInParsingTree)) {
-            currentNode.addChild(new MySyntaxNode(
-                    ((QuestionNONTERM) currentKind).getExtendedKind())
-            );
-            return;
 
-        } else if (!first.contains(tokenKind)) {
-            // TODO: code duplication
+    @Override
+    public MyParseResult parse(String code) {
+        CodePointBuffer text = CodePointBuffer.of(code);
+        return parse(text, new TokenStream(text).toList());
+    }
 
-            invalidRanges.add(token.fullSpan());
+    /**
+     * Same as {@link #parse(String)}, with the top level type definitions parsed in parallel on {@code pool}.
+     *
+     * @see ParallelParse
+     */
+    public MyParseResult parse(String code, ForkJoinPool pool) {
+        CodePointBuffer text = CodePointBuffer.of(code);
+        return ParallelParse.parse(this, text, new TokenStream(text).toList(), pool);
+    }
 
-            DiagnosticInfo info = new DiagnosticInfo(new UnrecognisedToken(), new Object[]{token});
-            diagnostics.add(new Diagnostic(info, token.fullSpan(), null));
-            currentPosition++;
-            return;
-        } else if (isTerminal(currentKind) && matchSyntaxKind(token, currentKind)) {
-            currentNode.relatedToken = token;
-            currentPosition++;
-            return;
-        } else if (isTerminal(currentKind)) {
-            // TODO: code duplication
+    /**
+     * Parses {@code tokens}, which are the tokens of {@code text}.
+     */
+    MyParseResult parse(CodePointBuffer text, List<Token> tokens) {
+        return parse(text, tokens, null);
+    }
 
-            invalidRanges.add(token.fullSpan());
+    /**
+     * Parses the text of {@code previous} with {@code edit} applied. Type definitions, members and statements
+     * whose tokens are not touched by the edit are taken from {@code previous} instead of being parsed again.
+     * <p>
+     * This saves the parsing, but still takes time linear in the length of the text: tokens hold absolute
+     * positions, so every token and node after the edit is copied with shifted positions, and the reusable
+     * nodes are listed anew. An edit near the start of a large text costs the most.
+     *
+     * @param previous result of {@link #parse(String)} or of this method
+     */
+    public MyParseResult reparse(MyParseResult previous, TextEdit edit) {
+        CodePointBuffer previousText = previous.text();
+        IncrementalLexer.Result relexed = IncrementalLexer.relexWithReuse(previousText, previous.tokens, edit);
+        CodePointBuffer text = previousText.apply(edit);
+        return parse(text, relexed.tokens(), new SubtreeReuse(previous, relexed, text.size() - previousText.size()));
+    }
 
-            DiagnosticInfo info = new DiagnosticInfo(new UnrecognisedToken(), new Object[]{token});
-            diagnostics.add(new Diagnostic(info, token.fullSpan(), null));
-            currentPosition++;
-            return;
+    MyParseResult parse(CodePointBuffer text, List<Token> tokens, SubtreeReuse reuse) {
+        return new ParseRun(reuse).run(text, tokens);
+    }
+
+    /**
+     * Parses just a type definition from the token at {@code position}, the way it would be parsed
+     * as part of the whole text.
+     *
+     * @return result whose root is the post processed type definition, and whose first reusable node is it
+     */
+    MyParseResult parseTypeDefinition(CodePointBuffer text, List<Token> tokens, int position) {
+        return new ParseRun(null).runTypeDefinition(text, tokens, position);
+    }
+
+    // State of a single parse, with the methods of the recursive descent
+    private final class ParseRun {
+
+        private int currentPosition = 0;
+        private int depth = 0;
+        private final TreeBuilder builder =
+                buildSyntaxTreeDirectly ? new SyntaxTreeBuilder() : new ParsingTreeBuilder();
+        private final List<ReusableNode> reusableNodes = new ArrayList<>();
+        // null unless reparsing
+        private final SubtreeReuse reuse;
+
+        ParseRun(SubtreeReuse reuse) {
+            this.reuse = reuse;
         }
-        switch (currentKind) {
-            case OrNONTERM _ -> {
-                boolean result = parseOR(tokens, diagnostics, invalidRanges, currentNode, rules);
-                if (!result) {
-                    // TODO: code duplication
-                    invalidRanges.add(token.fullSpan());
-
-                    DiagnosticInfo info = new DiagnosticInfo(new UnrecognisedToken(), new Object[]{token});
-                    diagnostics.add(new Diagnostic(info, token.fullSpan(), null));
-                    currentPosition++;
-                }
+
+        MyParseResult runTypeDefinition(CodePointBuffer text, List<Token> tokens, int position) {
+            currentPosition = position;
+
+            ArrayList<Diagnostic> diagnostics = new ArrayList<>();
+            ArrayList<TextSpan> invalidRanges = new ArrayList<>();
+            parseChild(tokens, diagnostics, invalidRanges, SyntaxKind.TYPE_DEFINITION, Grammar.rules);
+            MySyntaxNode node = reusableNodes.getFirst().node();
+            if (!buildSyntaxTreeDirectly) {
+                // A type definition is kept by post processing, only its children are replaced
+                node.syntaxNodes = postProcessParsingTree(node.syntaxNodes);
             }
-            case ListNONTERM _ -> parseList(tokens, diagnostics, invalidRanges, currentNode, rules);
-            case QuestionNONTERM _ -> parseQuestion(tokens, diagnostics, invalidRanges, currentNode, rules);
-            default -> {
-                List<AnySyntaxKind> rule = rules.get(currentKind);
-
-                for (AnySyntaxKind kind : rule) {
-                    currentNode.addChild(new MySyntaxNode(kind));
-                    parseRecursive(tokens, diagnostics, invalidRanges,
-                            (MySyntaxNode) currentNode.slot(currentNode.slotCount() - 1),
-                            rules);
-                }
+            return new MyParseResult(node, invalidRanges, diagnostics, text, tokens, reusableNodes);
+        }
+
+        MyParseResult run(CodePointBuffer text, List<Token> tokens) {
+            ArrayList<Diagnostic> diagnostics = new ArrayList<>();
+            ArrayList<TextSpan> invalidRanges = new ArrayList<>();
+            MySyntaxNode root;
+
+            if (engine == Engine.TABLE_DRIVEN) {
+                root = new TableDrivenParser(Grammar.predictionTable, tokens, diagnostics, invalidRanges, reusableNodes,
+                        reuse, builder).parse(SyntaxKind.SOURCE_TEXT, 0);
+            } else {
+                root = parseRecursive(tokens, diagnostics, invalidRanges, SyntaxKind.SOURCE_TEXT, Grammar.rules);
+            }
+            if (!buildSyntaxTreeDirectly) {
+                root.syntaxNodes = postProcessParsingTree(root.syntaxNodes);
             }
+            return new MyParseResult(root, invalidRanges, diagnostics, text, tokens, reusableNodes);
         }
 
 
-    }
+        // Parses a node of the given kind, returns what the builder made of it
+        MySyntaxNode parseRecursive(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                                    ArrayList<TextSpan> invalidRanges, AnySyntaxKind kind,
+                                    HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            if (depth == maxRecursionDepth) {
+                TableDrivenParser parser = new TableDrivenParser(Grammar.predictionTable, tokens, diagnostics,
+                        invalidRanges, reusableNodes, reuse, builder);
+                MySyntaxNode node = parser.parse(kind, currentPosition);
+                currentPosition = parser.position();
+                return node;
+            }
+            depth++;
+            builder.open(kind);
+            parseNode(tokens, diagnostics, invalidRanges, kind, rules);
+            depth--;
+            return builder.close();
+        }
+
+        private void parseNode(List<Token> tokens, ArrayList<Diagnostic> diagnostics, ArrayList<TextSpan> invalidRanges,
+                               AnySyntaxKind currentKind, HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            if (currentPosition >= tokens.size()) {
+                return;
+            }
+            Token token = tokens.get(currentPosition);
+
+            AnySyntaxKind tokenKind = token.toSyntaxKind();
+
+            boolean inFirst = Grammar.firstSets.contains(currentKind, tokenKind);
+
+            if (!inFirst &&
+                    ((currentKind instanceof QuestionNONTERM && !((QuestionNONTERM) currentKind).saveInParsingTree)
+                            || currentKind instanceof ListNONTERM)) {
+                return;
+            } else if (!inFirst &&
+                    (currentKind instanceof QuestionNONTERM && ((QuestionNONTERM) currentKind).saveInParsingTree)) {
+                builder.open(((QuestionNONTERM) currentKind).getExtendedKind());
+                builder.close();
+                return;
+
+            } else if (!inFirst) {
+                reportUnrecognisedToken(token, diagnostics, invalidRanges);
+                currentPosition++;
+                return;
+            } else if (isTerminal(currentKind) && matchSyntaxKind(token, currentKind)) {
+                builder.token(token);
+                currentPosition++;
+                return;
+            } else if (isTerminal(currentKind)) {
+                reportUnrecognisedToken(token, diagnostics, invalidRanges);
+                currentPosition++;
+                return;
+            }
+            switch (currentKind) {
+                case OrNONTERM _ -> {
+                    boolean result = parseOR(tokens, diagnostics, invalidRanges, currentKind, rules);
+                    if (!result) {
+                        reportUnrecognisedToken(token, diagnostics, invalidRanges);
+                        currentPosition++;
+                    }
+                }
+                case ListNONTERM _ -> parseList(tokens, diagnostics, invalidRanges, currentKind, rules);
+                case QuestionNONTERM _ -> parseQuestion(tokens, diagnostics, invalidRanges, currentKind, rules);
+                case AdditionalSyntaxKind.EXPRESSION -> parseExpression(tokens, diagnostics, invalidRanges, rules);
+                default -> {
+                    List<AnySyntaxKind> rule = rules.get(currentKind);
+
+                    for (AnySyntaxKind kind : rule) {
+                        parseRecursive(tokens, diagnostics, invalidRanges, kind, rules);
+                    }
+                }
+            }
+
 
-    void parseQuestion(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
-                       ArrayList<TextSpan> invalidRanges, MySyntaxNode currentNode,
-                       HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
-        if (currentPosition >= tokens.size()) {
-            return;
         }
-        AnySyntaxKind tokenKind = tokens.get(currentPosition).toSyntaxKind();
-        AnySyntaxKind currentKind = ((QuestionNONTERM) currentNode.kind()).getExtendedKind();
-
-        List<AnySyntaxKind> first = new ArrayList<>();
-        calculateFirst(currentKind, first, rules);
-
-        if (isTerminal(currentKind) && matchSyntaxKind(tokens.get(currentPosition), currentKind)) {
-            currentNode.addChild(new MySyntaxNode(currentKind, tokens.get(currentPosition++)));
-        } else if (first.contains(tokenKind)) {
-            currentNode.addChild(new MySyntaxNode(currentKind));
-            parseRecursive(tokens, diagnostics, invalidRanges,
-                    (MySyntaxNode) currentNode.slot(currentNode.slotCount() - 1),
-                    rules);
+
+        void parseExpression(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                             ArrayList<TextSpan> invalidRanges, HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            ExpressionParser expression = new ExpressionParser(tokens, diagnostics, invalidRanges, builder);
+            AnySyntaxKind operand;
+            while ((operand = expression.next(currentPosition)) != null) {
+                currentPosition = expression.position();
+                parseRecursive(tokens, diagnostics, invalidRanges, operand, rules);
+            }
+            currentPosition = expression.position();
+            expression.finish();
         }
-    }
 
-    void parseList(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
-                   ArrayList<TextSpan> invalidRanges, MySyntaxNode currentNode,
-                   HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
-        boolean keepRecognising = true;
-        while (keepRecognising) {
-            keepRecognising = false;
+        void parseQuestion(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                           ArrayList<TextSpan> invalidRanges, AnySyntaxKind questionKind,
+                           HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
             if (currentPosition >= tokens.size()) {
-                break;
+                return;
             }
-
             AnySyntaxKind tokenKind = tokens.get(currentPosition).toSyntaxKind();
-            AnySyntaxKind currentKind = ((ListNONTERM) currentNode.kind()).getExtendedKind();
-
-            List<AnySyntaxKind> first = new ArrayList<>();
-            calculateFirst(currentKind, first, rules);
+            AnySyntaxKind currentKind = ((QuestionNONTERM) questionKind).getExtendedKind();
 
             if (isTerminal(currentKind) && matchSyntaxKind(tokens.get(currentPosition), currentKind)) {
-                currentNode.addChild(new MySyntaxNode(currentKind, tokens.get(currentPosition++)));
-                keepRecognising = true;
-            } else if (first.contains(tokenKind)) {
-                currentNode.addChild(new MySyntaxNode(currentKind));
-                parseRecursive(tokens, diagnostics, invalidRanges,
-                        (MySyntaxNode) currentNode.slot(currentNode.slotCount() - 1),
-                        rules);
-                keepRecognising = true;
+                builder.terminal(currentKind, tokens.get(currentPosition++));
+            } else if (Grammar.firstSets.contains(currentKind, tokenKind)) {
+                parseRecursive(tokens, diagnostics, invalidRanges, currentKind, rules);
             }
         }
-    }
 
+        void parseList(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                       ArrayList<TextSpan> invalidRanges, AnySyntaxKind listKind,
+                       HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            boolean keepRecognising = true;
+            while (keepRecognising) {
+                keepRecognising = false;
+                if (currentPosition >= tokens.size()) {
+                    break;
+                }
 
-    boolean parseOR(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
-                    ArrayList<TextSpan> invalidRanges, MySyntaxNode currentNode,
-                    HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
-        if (currentPosition >= tokens.size()) {
+                AnySyntaxKind tokenKind = tokens.get(currentPosition).toSyntaxKind();
+                AnySyntaxKind currentKind = ((ListNONTERM) listKind).getExtendedKind();
+
+                if (isTerminal(currentKind) && matchSyntaxKind(tokens.get(currentPosition), currentKind)) {
+                    builder.terminal(currentKind, tokens.get(currentPosition++));
+                    keepRecognising = true;
+                } else if (Grammar.firstSets.contains(currentKind, tokenKind)) {
+                    parseChild(tokens, diagnostics, invalidRanges, currentKind, rules);
+                    keepRecognising = true;
+                }
+            }
+        }
+
+
+        boolean parseOR(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                        ArrayList<TextSpan> invalidRanges, AnySyntaxKind orKind,
+                        HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            if (currentPosition >= tokens.size()) {
+                return false;
+            }
+            AnySyntaxKind tokenKind = tokens.get(currentPosition).toSyntaxKind();
+            OrNONTERM currentKind = (OrNONTERM) orKind;
+
+            for (AnySyntaxKind possibleKind : currentKind.getPossibleKinds()) {
+                if (isTerminal(possibleKind) && matchSyntaxKind(tokens.get(currentPosition), possibleKind)) {
+                    builder.terminal(possibleKind, tokens.get(currentPosition++));
+                    return true;
+                } else if (Grammar.firstSets.contains(possibleKind, tokenKind)) {
+                    parseChild(tokens, diagnostics, invalidRanges, possibleKind, rules);
+                    return true;
+                }
+            }
             return false;
         }
-        AnySyntaxKind tokenKind = tokens.get(currentPosition).toSyntaxKind();
-        OrNONTERM currentKind = (OrNONTERM) currentNode.kind();
-
-        for (AnySyntaxKind possibleKind : currentKind.getPossibleKinds()) {
-            List<AnySyntaxKind> first = new ArrayList<>();
-            calculateFirst(possibleKind, first, rules);
-
-            if (isTerminal(possibleKind) && matchSyntaxKind(tokens.get(currentPosition), possibleKind)) {
-                currentNode.addChild(new MySyntaxNode(possibleKind, tokens.get(currentPosition++)));
-                return true;
-            } else if (first.contains(tokenKind)) {
-                currentNode.addChild(new MySyntaxNode(possibleKind));
-                parseRecursive(tokens, diagnostics, invalidRanges,
-                        (MySyntaxNode) currentNode.slot(currentNode.slotCount() - 1),
-                        rules);
-                return true;
+
+        // Parses a node of the given kind as the next child, remembering or reusing
+        // type definitions, members and statements
+        void parseChild(List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                        ArrayList<TextSpan> invalidRanges, AnySyntaxKind kind,
+                        HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+            if (!reusableKinds.contains(kind)) {
+                parseRecursive(tokens, diagnostics, invalidRanges, kind, rules);
+                return;
             }
+
+            int recordIndex = reusableNodes.size();
+            int index = reuse == null ? -1 : reuse.find(currentPosition, kind);
+            if (index != -1) {
+                builder.reused(reuse.reuse(index, diagnostics, invalidRanges, reusableNodes));
+                currentPosition = reusableNodes.get(recordIndex).end();
+                return;
+            }
+
+            int start = currentPosition;
+            int diagnosticsStart = diagnostics.size();
+            reusableNodes.add(null);
+
+            MySyntaxNode node = parseRecursive(tokens, diagnostics, invalidRanges, kind, rules);
+
+            reusableNodes.set(recordIndex,
+                    new ReusableNode(node, start, currentPosition, diagnosticsStart, diagnostics.size()));
         }
-        return false;
+    }
+
+    static void reportUnrecognisedToken(Token token, ArrayList<Diagnostic> diagnostics, ArrayList<TextSpan> invalidRanges) {
+        invalidRanges.add(token.fullSpan());
+
+        DiagnosticInfo info = new DiagnosticInfo(new UnrecognisedToken(), new Object[]{token});
+        diagnostics.add(new Diagnostic(info, token.fullSpan(), null));
     }
 
     boolean matchSyntaxKind(Token token, AnySyntaxKind currentKind) {
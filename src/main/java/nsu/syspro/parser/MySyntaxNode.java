@@ -3,9 +3,17 @@ package nsu.syspro.parser;
 import syspro.tm.lexer.Token;
 import syspro.tm.parser.AnySyntaxKind;
 import syspro.tm.parser.SyntaxNode;
+import syspro.tm.parser.TextSpan;
 
+import java.util.ArrayDeque;
 import java.util.List;
 
+/**
+ * Node of the trees {@link MyParser} builds.
+ * <p>
+ * The first and last terminals and the full span are found once, the first time any of them is needed,
+ * from those of the children. So the tree must not change anymore by then, which holds for every finished parse.
+ */
 public class MySyntaxNode implements SyntaxNode {
 
     private final AnySyntaxKind kind;
@@ -15,6 +23,11 @@ public class MySyntaxNode implements SyntaxNode {
     // wrapped in SyntaxNode
     List<SyntaxNode> syntaxNodes;
 
+    private boolean completed;
+    // null if the node has no terminals at all
+    private SyntaxNode firstTerminal, lastTerminal;
+    private TextSpan fullSpan;
+
     public MySyntaxNode(AnySyntaxKind kind, Token relatedToken) {
         this.kind = kind;
         this.relatedToken = relatedToken;
@@ -46,7 +59,7 @@ public class MySyntaxNode implements SyntaxNode {
 
     @Override
     public int slotCount() {
-        return syntaxNodes.size();
+        return syntaxNodes == null ? 0 : syntaxNodes.size();
     }
 
     @Override
@@ -59,4 +72,105 @@ public class MySyntaxNode implements SyntaxNode {
     public Token token() {
         return relatedToken;
     }
+
+    @Override
+    public SyntaxNode firstTerminal() {
+        complete();
+        return firstTerminal;
+    }
+
+    @Override
+    public SyntaxNode lastTerminal() {
+        complete();
+        return lastTerminal;
+    }
+
+    @Override
+    public TextSpan fullSpan() {
+        complete();
+        return fullSpan;
+    }
+
+    @Override
+    public TextSpan span() {
+        complete();
+        if (fullSpan == null) return null;
+        int leading = firstTerminal.token().leadingTriviaLength;
+        int trailing = lastTerminal.token().trailingTriviaLength;
+        return new TextSpan(fullSpan.start + leading, fullSpan.length - leading - trailing);
+    }
+
+    @Override
+    public int position() {
+        return firstTerminal().token().start;
+    }
+
+    @Override
+    public int fullLength() {
+        complete();
+        return fullSpan.length;
+    }
+
+    @Override
+    public int length() {
+        return fullLength() - firstTerminal.token().leadingTriviaLength - lastTerminal.token().trailingTriviaLength;
+    }
+
+    @Override
+    public int leadingTriviaLength() {
+        return firstTerminal().token().leadingTriviaLength;
+    }
+
+    @Override
+    public int trailingTriviaLength() {
+        return lastTerminal().token().trailingTriviaLength;
+    }
+
+    // Finds the terminals of this node and of all descendants not completed yet, children first
+    private void complete() {
+        if (completed) return;
+        ArrayDeque<MySyntaxNode> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            MySyntaxNode node = stack.peek();
+            if (node.completed) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            if (node.relatedToken == null && node.syntaxNodes != null) {
+                for (SyntaxNode child : node.syntaxNodes) {
+                    if (child instanceof MySyntaxNode myChild && !myChild.completed) {
+                        stack.push(myChild);
+                        ready = false;
+                    }
+                }
+            }
+            if (ready) {
+                stack.pop();
+                node.completeFromChildren();
+            }
+        }
+    }
+
+    private void completeFromChildren() {
+        if (relatedToken != null) {
+            firstTerminal = this;
+            lastTerminal = this;
+        } else if (syntaxNodes != null) {
+            for (int i = 0; i < syntaxNodes.size() && firstTerminal == null; i++) {
+                SyntaxNode child = syntaxNodes.get(i);
+                if (child != null) firstTerminal = child.firstTerminal();
+            }
+            for (int i = syntaxNodes.size() - 1; i >= 0 && lastTerminal == null; i--) {
+                SyntaxNode child = syntaxNodes.get(i);
+                if (child != null) lastTerminal = child.lastTerminal();
+            }
+        }
+        if (firstTerminal != null && lastTerminal != null) {
+            Token first = firstTerminal.token(), last = lastTerminal.token();
+            fullSpan = new TextSpan(first.start, last.end - first.start + 1);
+        }
+        completed = true;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.CodePointBuffer;
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.SyntaxKind;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the top level type definitions of a text in parallel.
+ * <p>
+ * A type definition most likely starts at every keyword that can start one, is at the start of a line
+ * and has no indentation. Type definitions are parsed from there on their own, which gives the same nodes
+ * as parsing the whole text would, since parsing a node only depends on the tokens from its start on.
+ * Then the whole text is parsed, taking these nodes over the same way {@link MyParser#reparse} takes over
+ * the nodes of the previous tree. A guess that was wrong is just not taken, and a type definition that failed
+ * to parse on its own is parsed again in place, so the result is always that of {@link MyParser#parse(String)}.
+ */
+final class ParallelParse {
+
+    // Chunks of type definitions per thread of the pool, more of them balance uneven definitions better
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ParallelParse() {
+    }
+
+    static MyParseResult parse(MyParser parser, CodePointBuffer text, List<Token> tokens, ForkJoinPool pool) {
+        List<Integer> starts = typeDefinitionStarts(text, tokens);
+        int chunks = Math.min(starts.size(), pool.getParallelism() * CHUNKS_PER_THREAD);
+
+        List<Callable<List<MyParseResult>>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            List<Integer> chunk = starts.subList(starts.size() * i / chunks, starts.size() * (i + 1) / chunks);
+            tasks.add(() -> parseChunk(parser, text, tokens, chunk));
+        }
+
+        List<MyParseResult> definitions = new ArrayList<>(starts.size());
+        for (Future<List<MyParseResult>> future : pool.invokeAll(tasks)) {
+            try {
+                definitions.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return parser.parse(text, tokens, new SubtreeReuse(merge(text, tokens, definitions)));
+    }
+
+    // Token indices of keywords that can start a type definition at the start of a line without indentation
+    private static List<Integer> typeDefinitionStarts(CodePointBuffer text, List<Token> tokens) {
+        List<Integer> starts = new ArrayList<>();
+        int level = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token instanceof IndentationToken indentation) {
+                level += indentation.difference;
+                continue;
+            }
+            int start = token.start + token.leadingTriviaLength;
+            if (level == 0 && (start == 0 || text.get(start - 1) == '\n')
+                    && Grammar.firstSets.contains(SyntaxKind.TYPE_DEFINITION, token.toSyntaxKind())) {
+                starts.add(i);
+            }
+        }
+        return starts;
+    }
+
+    // Type definitions that parsed, a definition that covers the start of the next one makes the next one useless
+    private static List<MyParseResult> parseChunk(MyParser parser, CodePointBuffer text, List<Token> tokens,
+                                                  List<Integer> starts) {
+        List<MyParseResult> results = new ArrayList<>(starts.size());
+        int end = 0;
+        for (int start : starts) {
+            if (start < end) continue;
+            try {
+                MyParseResult result = parser.parseTypeDefinition(text, tokens, start);
+                results.add(result);
+                end = result.reusableNodes.getFirst().end();
+            } catch (RuntimeException e) {
+                // The whole text parse will get to it and fail the same way, if it is a type definition at all
+            }
+        }
+        return results;
+    }
+
+    // One result with the reusable nodes and diagnostics of all type definitions, in text order
+    private static MyParseResult merge(CodePointBuffer text, List<Token> tokens, List<MyParseResult> definitions) {
+        ArrayList<Diagnostic> diagnostics = new ArrayList<>();
+        ArrayList<TextSpan> invalidRanges = new ArrayList<>();
+        List<ReusableNode> reusableNodes = new ArrayList<>();
+        int end = 0;
+        for (MyParseResult definition : definitions) {
+            if (definition.reusableNodes.getFirst().start() < end) continue;
+            end = definition.reusableNodes.getFirst().end();
+
+            int shift = diagnostics.size();
+            for (ReusableNode node : definition.reusableNodes) {
+                reusableNodes.add(new ReusableNode(node.node(), node.start(), node.end(),
+                        node.diagnosticsStart() + shift, node.diagnosticsEnd() + shift));
+            }
+            diagnostics.addAll(definition.diagnostics);
+            invalidRanges.addAll(definition.invalidRanges);
+        }
+        return new MyParseResult(null, invalidRanges, diagnostics, text, tokens, reusableNodes);
+    }
+}
@@ -0,0 +1,122 @@
+package nsu.syspro.parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of a {@link MyParser} by the text they were parsed from, so that parsing the same text again is a lookup.
+ * <p>
+ * Texts are found by a 64-bit hash and then compared in full. The least recently used results are dropped
+ * once there are more than {@code maxEntries} of them or they take more than an estimated {@code maxBytes}.
+ * Results are kept compact ({@link MyParseResult#compact()}) and cannot be changed, so they are shared by all
+ * callers and threads. Threads that miss the same text at once each parse it.
+ */
+public class ParseCache {
+
+    /**
+     * Counters since the cache was made, and its current size.
+     */
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes) {
+    }
+
+    // Rough retained sizes: a char of the source, which the compact result shares, a token in the buffer of the
+    // compact tree with its share of the distinct identifier strings, and a node of that tree
+    private static final long BYTES_PER_CHAR = 2, BYTES_PER_TOKEN = 28, BYTES_PER_NODE = 14;
+
+    private record Entry(String code, MyParseResult result, long bytes) {
+    }
+
+    private final MyParser parser;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Guarded by this, in access order
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes, hits, misses, evictions;
+
+    public ParseCache(MyParser parser, int maxEntries, long maxBytes) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Negative cache bounds: " + maxEntries + ", " + maxBytes);
+        }
+        this.parser = parser;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Same as {@link MyParser#parse(String)}, with the result compacted and read-only.
+     */
+    public MyParseResult parse(String code) {
+        long key = hash(code);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.code.equals(code)) {
+                hits++;
+                return entry.result;
+            }
+            misses++;
+        }
+
+        MyParseResult parsed = parser.parse(code);
+        long estimate = estimateBytes(code, parsed);
+        MyParseResult result = parsed.toImmutable(code);
+        Entry entry = new Entry(code, result, estimate);
+        synchronized (this) {
+            if (entry.bytes > maxBytes || maxEntries == 0) return result;
+            Entry replaced = entries.put(key, entry);
+            if (replaced != null) {
+                bytes -= replaced.bytes;
+            }
+            bytes += entry.bytes;
+            evict();
+        }
+        return result;
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), bytes);
+    }
+
+    /**
+     * Drops all results, keeping the counters.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // Retained size of the compacted result, the nodes are counted before compacting as that walk allocates nothing
+    private static long estimateBytes(String code, MyParseResult result) {
+        long nodes = 0;
+        SyntaxCursor cursor = new SyntaxCursor(result.root());
+        while (cursor.next()) {
+            if (cursor.isEntering()) nodes++;
+        }
+        return code.length() * BYTES_PER_CHAR + result.tokens.size() * BYTES_PER_TOKEN + nodes * BYTES_PER_NODE;
+    }
+
+    // 64-bit FNV-1a over the chars, taken two at a time
+    static long hash(String code) {
+        long hash = 0xcbf29ce484222325L;
+        int length = code.length();
+        for (int i = 0; i + 1 < length; i += 2) {
+            hash ^= code.charAt(i) | (long) code.charAt(i + 1) << 16;
+            hash *= 0x100000001b3L;
+        }
+        if ((length & 1) != 0) {
+            hash ^= code.charAt(length - 1);
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ length;
+    }
+}
@@ -0,0 +1,68 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the parsing tree, with a node for every kind of the rules, for {@link MyParser#postProcessParsingTree}.
+ */
+class ParsingTreeBuilder implements TreeBuilder {
+
+    private final ArrayList<MySyntaxNode> open = new ArrayList<>();
+
+    @Override
+    public void open(AnySyntaxKind kind) {
+        MySyntaxNode node = new MySyntaxNode(kind);
+        if (!open.isEmpty()) {
+            open.getLast().addChild(node);
+        }
+        open.add(node);
+    }
+
+    @Override
+    public MySyntaxNode close() {
+        return open.removeLast();
+    }
+
+    @Override
+    public void token(Token token) {
+        open.getLast().relatedToken = token;
+    }
+
+    @Override
+    public void terminal(AnySyntaxKind kind, Token token) {
+        open.getLast().addChild(new MySyntaxNode(kind, token));
+    }
+
+    @Override
+    public void reused(MySyntaxNode node) {
+        MySyntaxNode reused = new MySyntaxNode(AdditionalSyntaxKind.REUSED);
+        reused.addChild(node);
+        open.getLast().addChild(reused);
+    }
+
+    @Override
+    public int checkpoint() {
+        List<SyntaxNode> children = open.getLast().syntaxNodes;
+        return children == null ? 0 : children.size();
+    }
+
+    @Override
+    public void wrap(int checkpoint, AnySyntaxKind kind) {
+        MySyntaxNode parent = open.getLast();
+        MySyntaxNode node = new MySyntaxNode(kind);
+        if (parent.syntaxNodes != null) {
+            List<SyntaxNode> children = parent.syntaxNodes.subList(checkpoint, parent.syntaxNodes.size());
+            node.addChildren(new ArrayList<>(children));
+            children.clear();
+        } else {
+            node.addChildren(null);
+        }
+        parent.addChild(node);
+    }
+}
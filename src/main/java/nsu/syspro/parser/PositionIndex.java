@@ -0,0 +1,197 @@
+package nsu.syspro.parser;
+
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Full spans of all nodes of a tree in pre-order, for finding nodes and tokens by position with binary search.
+ * <p>
+ * The spans are those {@link SyntaxNode#fullSpan()} gives, from the first token of a node to its last one, indentation
+ * tokens included, though these are not nodes of the index themselves. A dedent sits on the first line break of the
+ * trailing trivia of the token before it, which can go on over comment lines, so a span need not contain those of
+ * the descendants, and spans of siblings can overlap. Tokens still start in text order, so in pre-order the spans
+ * are sorted by start and the nodes starting at or before a position are the ones up to some index. Of those, the
+ * ones ending after it are found with a tree of the largest end of each range of nodes.
+ */
+final class PositionIndex {
+
+    private final SyntaxNode[] nodes;
+    // Full span of nodes[i] is [starts[i], ends[i])
+    private final int[] starts, ends;
+    // Complete binary tree over the nodes, maxEnds[leaves + i] is ends[i] and every other entry the larger one
+    // of its two children
+    private final int leaves;
+    private final int[] maxEnds;
+    // Real tokens in text order, with the start of each
+    private final Token[] tokens;
+    private final int[] tokenStarts;
+
+    PositionIndex(SyntaxNode root, List<Token> tokens) {
+        List<SyntaxNode> order = new ArrayList<>();
+        List<Integer> parentOrder = new ArrayList<>();
+        ArrayDeque<SyntaxNode> stack = new ArrayDeque<>();
+        ArrayDeque<Integer> parentStack = new ArrayDeque<>();
+        if (root != null) {
+            stack.push(root);
+            parentStack.push(-1);
+        }
+        while (!stack.isEmpty()) {
+            SyntaxNode node = stack.pop();
+            int index = order.size();
+            order.add(node);
+            parentOrder.add(parentStack.pop());
+            if (node.token() != null) continue;
+            for (int i = node.slotCount() - 1; i >= 0; i--) {
+                SyntaxNode child = node.slot(i);
+                if (child != null) {
+                    stack.push(child);
+                    parentStack.push(index);
+                }
+            }
+        }
+
+        // Children come after their parent, so going backwards a node has all of its descendants by then,
+        // the last child first and the first child last
+        int size = order.size();
+        int[] allStarts = new int[size], allEnds = new int[size];
+        Arrays.fill(allStarts, Integer.MAX_VALUE);
+        Arrays.fill(allEnds, Integer.MIN_VALUE);
+        for (int i = size - 1; i >= 0; i--) {
+            Token token = order.get(i).token();
+            if (token != null) {
+                allStarts[i] = token.start;
+                allEnds[i] = token.end + 1;
+            }
+            int parent = parentOrder.get(i);
+            if (parent != -1 && allStarts[i] < allEnds[i]) {
+                allStarts[parent] = allStarts[i];
+                if (allEnds[parent] == Integer.MIN_VALUE) allEnds[parent] = allEnds[i];
+            }
+        }
+
+        // Indentation tokens and nodes without a span are dropped
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (kept(order.get(i), allStarts[i], allEnds[i])) count++;
+        }
+        nodes = new SyntaxNode[count];
+        starts = new int[count];
+        ends = new int[count];
+        count = 0;
+        for (int i = 0; i < size; i++) {
+            if (!kept(order.get(i), allStarts[i], allEnds[i])) continue;
+            nodes[count] = order.get(i);
+            starts[count] = allStarts[i];
+            ends[count] = allEnds[i];
+            count++;
+        }
+
+        int leaves = 1;
+        while (leaves < count) leaves *= 2;
+        this.leaves = leaves;
+        maxEnds = new int[2 * leaves];
+        Arrays.fill(maxEnds, Integer.MIN_VALUE);
+        System.arraycopy(ends, 0, maxEnds, leaves, count);
+        for (int i = leaves - 1; i > 0; i--) {
+            maxEnds[i] = Math.max(maxEnds[2 * i], maxEnds[2 * i + 1]);
+        }
+
+        List<Token> realTokens = new ArrayList<>();
+        if (tokens != null) {
+            for (Token token : tokens) {
+                if (!(token instanceof IndentationToken)) realTokens.add(token);
+            }
+        } else {
+            for (SyntaxNode node : nodes) {
+                if (node.token() != null) realTokens.add(node.token());
+            }
+        }
+        this.tokens = realTokens.toArray(new Token[0]);
+        tokenStarts = new int[this.tokens.length];
+        for (int i = 0; i < this.tokens.length; i++) {
+            tokenStarts[i] = this.tokens[i].start;
+        }
+    }
+
+    private static boolean kept(SyntaxNode node, int start, int end) {
+        return start < end && !(node.token() instanceof IndentationToken);
+    }
+
+    /**
+     * The node with the shortest full span containing {@code offset}, the last one in pre-order of those,
+     * so the deepest one if they are nested.
+     */
+    SyntaxNode nodeAt(int offset) {
+        int best = -1;
+        for (int index : overlapping(offset, offset + 1)) {
+            if (best == -1 || ends[index] - starts[index] <= ends[best] - starts[best]) {
+                best = index;
+            }
+        }
+        return best == -1 ? null : nodes[best];
+    }
+
+    Token tokenAt(int offset) {
+        int index = lastAtOrBefore(tokenStarts, offset);
+        return index != -1 && offset <= tokens[index].end ? tokens[index] : null;
+    }
+
+    /**
+     * Nodes sharing a position with {@code [start, end)}, or containing {@code start} if the range is empty,
+     * in pre-order.
+     */
+    List<SyntaxNode> nodesOverlapping(int start, int end) {
+        List<SyntaxNode> result = new ArrayList<>();
+        for (int index : overlapping(start, Math.max(end, start + 1))) {
+            result.add(nodes[index]);
+        }
+        return result;
+    }
+
+    // Indices of the nodes sharing a position with [start, end), which is not empty, in pre-order
+    private List<Integer> overlapping(int start, int end) {
+        List<Integer> result = new ArrayList<>();
+        int last = lastAtOrBefore(starts, end - 1);
+        if (last == -1) return result;
+        // Goes down the tree only into ranges of nodes up to last that have a node ending after start,
+        // the left one first
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(1);
+        int lastLeaf = leaves + last;
+        while (!stack.isEmpty()) {
+            int entry = stack.pop();
+            if (maxEnds[entry] <= start) continue;
+            if (entry >= leaves) {
+                result.add(entry - leaves);
+                continue;
+            }
+            // Leaves under entry are [entry << shift, (entry + 1) << shift), so every entry on the stack has its
+            // first leaf at or before last. The right child is skipped when all of its leaves come after it
+            int shift = Integer.numberOfLeadingZeros(entry) - Integer.numberOfLeadingZeros(leaves);
+            int right = 2 * entry + 1;
+            if ((right << (shift - 1)) <= lastLeaf) stack.push(right);
+            stack.push(2 * entry);
+        }
+        return result;
+    }
+
+    // Index of the last of the sorted values that is at most key, or -1
+    private static int lastAtOrBefore(int[] values, int key) {
+        int low = 0, high = values.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+}
@@ -0,0 +1,196 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
+import nsu.syspro.parser.nonterms.ListNONTERM;
+import nsu.syspro.parser.nonterms.OrNONTERM;
+import nsu.syspro.parser.nonterms.QuestionNONTERM;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.Symbol;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxKind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * LL(1) prediction table compiled from the rules for {@link TableDrivenParser}.
+ * <p>
+ * Every kind in the rules, wrappers included, gets a dense id. For each id and terminal index the table
+ * holds -1 if a phrase of the kind cannot start with the terminal, the alternative to take for an
+ * {@link OrNONTERM}, and 0 otherwise. Terminals in the FIRST sets of several alternatives are conflicts:
+ * the first such alternative is taken, as {@link MyParser} does, and the conflict is listed in {@link #conflicts()}.
+ * {@link Grammar} checks them with {@link #checkConflicts} against the ones it resolves that way on purpose.
+ */
+public class PredictionTable {
+
+    static final int TERMINAL = 0, RULE = 1, OR = 2, LIST = 3, QUESTION = 4, SAVED_QUESTION = 5, EXPRESSION = 6;
+
+    /**
+     * A token that can start several alternatives, so every alternative but the first one is never taken for it.
+     */
+    public record Conflict(OrNONTERM kind, AnySyntaxKind terminal, List<AnySyntaxKind> alternatives) {
+        @Override
+        public String toString() {
+            return terminal + " starts " + alternatives + ", " + alternatives.getFirst() + " is taken";
+        }
+    }
+
+    private static final AnySyntaxKind[] terminals = collectTerminals();
+
+    private final IdentityHashMap<AnySyntaxKind, Integer> ids = new IdentityHashMap<>();
+    private final ArrayList<AnySyntaxKind> kinds = new ArrayList<>();
+    private final int[] types;
+    private final int[][] children;
+    private final int[][] predictions;
+    private final List<Conflict> conflicts = new ArrayList<>();
+
+    public PredictionTable(HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules, FirstSets firstSets) {
+        ArrayList<int[]> childIds = new ArrayList<>();
+        for (var rule : rules.entrySet()) {
+            add(rule.getKey(), rules, childIds);
+        }
+
+        int size = kinds.size();
+        types = new int[size];
+        children = childIds.toArray(new int[0][]);
+        predictions = new int[size][];
+
+        for (int id = 0; id < size; id++) {
+            AnySyntaxKind kind = kinds.get(id);
+            types[id] = switch (kind) {
+                case ListNONTERM _ -> LIST;
+                case QuestionNONTERM question -> question.saveInParsingTree ? SAVED_QUESTION : QUESTION;
+                case OrNONTERM _ -> OR;
+                case AdditionalSyntaxKind.EXPRESSION -> EXPRESSION;
+                default -> kind.isTerminal() ? TERMINAL : RULE;
+            };
+
+            int[] row = new int[terminals.length];
+            for (int terminal = 0; terminal < terminals.length; terminal++) {
+                row[terminal] = firstSets.contains(kind, terminals[terminal]) ? 0 : -1;
+            }
+            if (types[id] == OR) {
+                predictOr((OrNONTERM) kind, row, firstSets);
+            }
+            predictions[id] = row;
+        }
+    }
+
+    public List<Conflict> conflicts() {
+        return Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * Fails unless the conflicts are exactly the accepted ones, so that a change of the rules cannot add
+     * a conflict that would silently be resolved by the first alternative.
+     *
+     * @param accepted conflicts as the terminal followed by the alternatives it starts
+     */
+    void checkConflicts(Set<List<AnySyntaxKind>> accepted) {
+        Set<List<AnySyntaxKind>> found = new HashSet<>();
+        List<Conflict> unexpected = new ArrayList<>();
+        for (Conflict conflict : conflicts) {
+            List<AnySyntaxKind> key = new ArrayList<>(conflict.alternatives);
+            key.addFirst(conflict.terminal);
+            found.add(key);
+            if (!accepted.contains(key)) unexpected.add(conflict);
+        }
+        List<List<AnySyntaxKind>> missing = new ArrayList<>(accepted);
+        missing.removeAll(found);
+        if (!unexpected.isEmpty() || !missing.isEmpty()) {
+            throw new IllegalStateException("LL(1) conflicts of the rules changed, unexpected: " + unexpected
+                    + ", no longer there: " + missing);
+        }
+    }
+
+    /**
+     * Terminal kinds in {@link FirstSets#terminalIndex} order.
+     */
+    static List<AnySyntaxKind> terminals() {
+        return List.of(terminals);
+    }
+
+    int id(AnySyntaxKind kind) {
+        return ids.get(kind);
+    }
+
+    AnySyntaxKind kind(int id) {
+        return kinds.get(id);
+    }
+
+    int type(int id) {
+        return types[id];
+    }
+
+    // Items of a rule, alternatives of an OrNONTERM, extended kind of a list or a question
+    int[] children(int id) {
+        return children[id];
+    }
+
+    int predict(int id, AnySyntaxKind terminal) {
+        return predictions[id][FirstSets.terminalIndex(terminal)];
+    }
+
+    private int add(AnySyntaxKind kind, HashMap<AnySyntaxKind, List<AnySyntaxKind>> rules, ArrayList<int[]> childIds) {
+        Integer known = ids.get(kind);
+        if (known != null) return known;
+
+        int id = kinds.size();
+        ids.put(kind, id);
+        kinds.add(kind);
+        childIds.add(null);
+
+        List<AnySyntaxKind> terms = switch (kind) {
+            case ListNONTERM list -> List.of(list.getExtendedKind());
+            case QuestionNONTERM question -> List.of(question.getExtendedKind());
+            case OrNONTERM or -> or.getPossibleKinds();
+            default -> kind.isTerminal() ? List.of() : rules.get(kind);
+        };
+        int[] termIds = new int[terms.size()];
+        for (int i = 0; i < termIds.length; i++) {
+            termIds[i] = add(terms.get(i), rules, childIds);
+        }
+        childIds.set(id, termIds);
+        return id;
+    }
+
+    private void predictOr(OrNONTERM kind, int[] row, FirstSets firstSets) {
+        List<AnySyntaxKind> alternatives = kind.getPossibleKinds();
+        for (int terminal = 0; terminal < terminals.length; terminal++) {
+            if (row[terminal] == -1) continue;
+
+            List<AnySyntaxKind> starting = new ArrayList<>();
+            for (int i = alternatives.size() - 1; i >= 0; i--) {
+                if (firstSets.contains(alternatives.get(i), terminals[terminal])) {
+                    row[terminal] = i;
+                    starting.addFirst(alternatives.get(i));
+                }
+            }
+            if (starting.size() > 1) {
+                conflicts.add(new Conflict(kind, terminals[terminal], starting));
+            }
+        }
+    }
+
+    private static AnySyntaxKind[] collectTerminals() {
+        List<AnySyntaxKind> result = new ArrayList<>();
+        for (SyntaxKind kind : SyntaxKind.values()) {
+            if (kind.isTerminal()) result.add(kind);
+        }
+        result.addAll(List.of(Keyword.values()));
+        result.addAll(List.of(Symbol.values()));
+        // FirstSets.terminalIndex counts on the terminal SyntaxKinds coming before SOURCE_TEXT
+        for (int i = 0; i < result.size(); i++) {
+            if (FirstSets.terminalIndex(result.get(i)) != i) {
+                throw new IllegalStateException("Terminal index of " + result.get(i) + " is "
+                        + FirstSets.terminalIndex(result.get(i)) + ", not " + i + ": SyntaxKind has been reordered");
+            }
+        }
+        return result.toArray(new AnySyntaxKind[0]);
+    }
+}
@@ -0,0 +1,8 @@
+package nsu.syspro.parser;
+
+/**
+ * Type definition, member or statement parsed from tokens {@code [start, end)}, that looked at
+ * the token at {@code end} as well and reported diagnostics {@code [diagnosticsStart, diagnosticsEnd)}.
+ */
+record ReusableNode(MySyntaxNode node, int start, int end, int diagnosticsStart, int diagnosticsEnd) {
+}
@@ -0,0 +1,199 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.IncrementalLexer;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.DiagnosticInfo;
+import syspro.tm.parser.SyntaxNode;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Finds subtrees of a previous parse that can be taken over by a parse of the edited text.
+ * <p>
+ * Parsing a node only depends on the tokens it consumed and the token right after them, so a node can be
+ * reused if all of them are among the tokens the lexer carried over. Nodes before the edit are shared as is,
+ * nodes after it are copied with the shifted tokens, which takes time linear in the size of what follows the edit.
+ */
+class SubtreeReuse {
+
+    private final MyParseResult previous;
+    private final List<Token> tokens;
+    private final int reusedPrefix;
+    // First old and new token of the reused suffix
+    private final int oldSuffixStart;
+    private final int newSuffixStart;
+    private final int delta;
+
+    SubtreeReuse(MyParseResult previous, IncrementalLexer.Result relexed, int delta) {
+        this.previous = previous;
+        this.tokens = relexed.tokens();
+        this.reusedPrefix = relexed.reusedPrefix();
+        this.oldSuffixStart = previous.tokens.size() - relexed.reusedSuffix();
+        this.newSuffixStart = tokens.size() - relexed.reusedSuffix();
+        this.delta = delta;
+    }
+
+    /**
+     * Reuses the nodes of {@code previous}, which was parsed from the same tokens.
+     */
+    SubtreeReuse(MyParseResult previous) {
+        this.previous = previous;
+        this.tokens = previous.tokens;
+        this.reusedPrefix = Integer.MAX_VALUE;
+        this.oldSuffixStart = Integer.MAX_VALUE;
+        this.newSuffixStart = Integer.MAX_VALUE;
+        this.delta = 0;
+    }
+
+    /**
+     * @return index of the old node of the given kind parsed from the same tokens
+     * as a node starting at {@code position} would be, or -1
+     */
+    int find(int position, AnySyntaxKind kind) {
+        int start;
+        if (position < reusedPrefix) {
+            start = position;
+        } else if (position >= newSuffixStart) {
+            start = position - newSuffixStart + oldSuffixStart;
+        } else {
+            return -1;
+        }
+
+        List<ReusableNode> nodes = previous.reusableNodes;
+        int low = 0, high = nodes.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (nodes.get(middle).start() < start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < nodes.size() && nodes.get(i).start() == start; i++) {
+            ReusableNode node = nodes.get(i);
+            if (node.node().kind() != kind) continue;
+            if (node.end() < reusedPrefix || start >= oldSuffixStart) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Takes over the old node with its diagnostics and the reusable nodes inside it.
+     *
+     * @return the node to put into the new tree
+     */
+    MySyntaxNode reuse(int index, List<Diagnostic> diagnostics, List<TextSpan> invalidRanges,
+                       List<ReusableNode> reusableNodes) {
+        List<ReusableNode> nodes = previous.reusableNodes;
+        ReusableNode reused = nodes.get(index);
+        int last = index + 1;
+        while (last < nodes.size() && nodes.get(last).start() < reused.end()) {
+            last++;
+        }
+
+        int diagnosticsShift = diagnostics.size() - reused.diagnosticsStart();
+        if (reused.start() >= oldSuffixStart) {
+            return copy(reused, nodes.subList(index, last), diagnosticsShift, diagnostics, invalidRanges, reusableNodes);
+        }
+
+        for (ReusableNode node : nodes.subList(index, last)) {
+            reusableNodes.add(new ReusableNode(node.node(), node.start(), node.end(),
+                    node.diagnosticsStart() + diagnosticsShift, node.diagnosticsEnd() + diagnosticsShift));
+        }
+        diagnostics.addAll(previous.diagnostics.subList(reused.diagnosticsStart(), reused.diagnosticsEnd()));
+        invalidRanges.addAll(previous.invalidRanges.subList(reused.diagnosticsStart(), reused.diagnosticsEnd()));
+        return reused.node();
+    }
+
+    private MySyntaxNode copy(ReusableNode reused, List<ReusableNode> nested, int diagnosticsShift,
+                              List<Diagnostic> diagnostics, List<TextSpan> invalidRanges,
+                              List<ReusableNode> reusableNodes) {
+        int shift = newSuffixStart - oldSuffixStart;
+
+        IdentityHashMap<MySyntaxNode, MySyntaxNode> copies = new IdentityHashMap<>();
+        for (ReusableNode node : nested) {
+            copies.put(node.node(), null);
+        }
+        MySyntaxNode result = copy(reused.node(), new TokenMapper(reused.start()), copies);
+
+        for (ReusableNode node : nested) {
+            reusableNodes.add(new ReusableNode(copies.get(node.node()), node.start() + shift, node.end() + shift,
+                    node.diagnosticsStart() + diagnosticsShift, node.diagnosticsEnd() + diagnosticsShift));
+        }
+
+        TokenMapper mapper = new TokenMapper(reused.start());
+        for (Diagnostic diagnostic : previous.diagnostics.subList(reused.diagnosticsStart(), reused.diagnosticsEnd())) {
+            Object[] arguments = diagnostic.arguments().clone();
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] instanceof Token token) {
+                    arguments[i] = mapper.map(token);
+                }
+            }
+            DiagnosticInfo info = new DiagnosticInfo(diagnostic.errorCode(), arguments);
+            diagnostics.add(new Diagnostic(info, shift(diagnostic.location()), diagnostic.hints()));
+        }
+        for (TextSpan span : previous.invalidRanges.subList(reused.diagnosticsStart(), reused.diagnosticsEnd())) {
+            invalidRanges.add(shift(span));
+        }
+        return result;
+    }
+
+    // Copies the subtree in text order, so that the mapper is asked for its tokens in order
+    private MySyntaxNode copy(MySyntaxNode root, TokenMapper mapper,
+                              IdentityHashMap<MySyntaxNode, MySyntaxNode> copies) {
+        List<SyntaxNode> rootList = new ArrayList<>(1);
+        // Old nodes to copy, each followed by the list its copy goes to
+        ArrayDeque<Object> stack = new ArrayDeque<>();
+        stack.push(rootList);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            MySyntaxNode node = (MySyntaxNode) stack.pop();
+            @SuppressWarnings("unchecked")
+            List<SyntaxNode> parentList = (List<SyntaxNode>) stack.pop();
+
+            Token token = node.relatedToken == null ? null : mapper.map(node.relatedToken);
+            MySyntaxNode result = new MySyntaxNode(node.kind(), token);
+            parentList.add(result);
+            if (node.syntaxNodes != null) {
+                result.syntaxNodes = new ArrayList<>(node.syntaxNodes.size());
+                for (int i = node.syntaxNodes.size() - 1; i >= 0; i--) {
+                    stack.push(result.syntaxNodes);
+                    stack.push(node.syntaxNodes.get(i));
+                }
+            }
+            if (copies.containsKey(node)) {
+                copies.put(node, result);
+            }
+        }
+        return (MySyntaxNode) rootList.getFirst();
+    }
+
+    private TextSpan shift(TextSpan span) {
+        return new TextSpan(span.start + delta, span.length);
+    }
+
+    // Maps old suffix tokens to new ones, for tokens asked for in text order
+    private class TokenMapper {
+        private int index;
+
+        TokenMapper(int index) {
+            this.index = index;
+        }
+
+        Token map(Token token) {
+            List<Token> oldTokens = previous.tokens;
+            while (oldTokens.get(index) != token) {
+                index++;
+            }
+            return tokens.get(index - oldSuffixStart + newSuffixStart);
+        }
+    }
+}
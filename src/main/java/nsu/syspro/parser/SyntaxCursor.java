@@ -0,0 +1,159 @@
+package nsu.syspro.parser;
+
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Walks a syntax tree node by node, without collecting the nodes first as {@link SyntaxNode#descendants} does.
+ * <p>
+ * Every node is met twice: when the walk enters it, which gives pre-order, and when it leaves it after
+ * all of its children, which gives post-order. The path from the root is kept on an explicit stack,
+ * so the walk itself allocates nothing but that stack, which a cursor keeps across {@link #reset}s.
+ * Only {@link SyntaxNode#slotCount()}, {@link SyntaxNode#slot} and {@link SyntaxNode#token()} are used,
+ * so any tree works, a node with a token is taken for a leaf. Null slots are skipped.
+ * <pre>{@code
+ * SyntaxCursor cursor = new SyntaxCursor(root);
+ * while (cursor.next()) {
+ *     if (cursor.isEntering() && cursor.node().kind() == SyntaxKind.FUNCTION_DEFINITION) {
+ *         ...
+ *         cursor.skipChildren();
+ *     }
+ * }
+ * }</pre>
+ */
+public final class SyntaxCursor {
+
+    /**
+     * Callbacks of {@link #walk}.
+     */
+    public interface Visitor {
+
+        /**
+         * @return whether to walk the children of the node
+         */
+        boolean enter(SyntaxNode node);
+
+        default void leave(SyntaxNode node) {
+        }
+    }
+
+    // Path from the root to the current node, with the number of slots of each node and the next slot to visit
+    private SyntaxNode[] path = new SyntaxNode[32];
+    private int[] slotCounts = new int[32];
+    private int[] nextSlots = new int[32];
+    private int top = -1;
+
+    private SyntaxNode root;
+    private boolean entering;
+
+    public SyntaxCursor(SyntaxNode root) {
+        reset(root);
+    }
+
+    /**
+     * Starts over on another tree, keeping the stack.
+     */
+    public void reset(SyntaxNode root) {
+        Arrays.fill(path, 0, top + 1, null);
+        this.root = root;
+        top = -1;
+        entering = false;
+    }
+
+    /**
+     * Moves to the next node entered or left.
+     *
+     * @return false once the root has been left
+     */
+    public boolean next() {
+        if (top == -1) {
+            if (root == null) return false;
+            push(root);
+            root = null;
+            return true;
+        }
+        if (!entering) {
+            path[top--] = null;
+            if (top == -1) return false;
+        }
+
+        SyntaxNode parent = path[top];
+        while (nextSlots[top] < slotCounts[top]) {
+            SyntaxNode child = parent.slot(nextSlots[top]++);
+            if (child != null) {
+                push(child);
+                return true;
+            }
+        }
+        entering = false;
+        return true;
+    }
+
+    public SyntaxNode node() {
+        return path[top];
+    }
+
+    /**
+     * @return true if the walk enters the current node, false if it leaves it
+     */
+    public boolean isEntering() {
+        return entering;
+    }
+
+    /**
+     * @return the number of ancestors of the current node in the walked tree
+     */
+    public int depth() {
+        return top;
+    }
+
+    /**
+     * Does not walk the children of the node just entered, the next move leaves it.
+     */
+    public void skipChildren() {
+        if (entering) {
+            nextSlots[top] = slotCounts[top];
+        }
+    }
+
+    /**
+     * Walks the tree, skipping the children of nodes {@link Visitor#enter} returns false for.
+     */
+    public static void walk(SyntaxNode root, Visitor visitor) {
+        SyntaxCursor cursor = new SyntaxCursor(root);
+        while (cursor.next()) {
+            if (!cursor.isEntering()) {
+                visitor.leave(cursor.node());
+            } else if (!visitor.enter(cursor.node())) {
+                cursor.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Calls {@code action} on every node of the kind in pre-order, also within nodes of the kind.
+     */
+    public static void forEach(SyntaxNode root, AnySyntaxKind kind, Consumer<SyntaxNode> action) {
+        SyntaxCursor cursor = new SyntaxCursor(root);
+        while (cursor.next()) {
+            if (cursor.isEntering() && cursor.node().kind() == kind) {
+                action.accept(cursor.node());
+            }
+        }
+    }
+
+    private void push(SyntaxNode node) {
+        if (++top == path.length) {
+            path = Arrays.copyOf(path, top * 2);
+            slotCounts = Arrays.copyOf(slotCounts, top * 2);
+            nextSlots = Arrays.copyOf(nextSlots, top * 2);
+        }
+        path[top] = node;
+        slotCounts[top] = node.token() != null ? 0 : node.slotCount();
+        nextSlots[top] = 0;
+        entering = true;
+    }
+}
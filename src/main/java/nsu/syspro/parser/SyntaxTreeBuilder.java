@@ -0,0 +1,151 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.parser.nonterms.AdditionalSyntaxKind;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.SyntaxKind;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds the tree of the API right away: a node is given its final shape when it is closed, the way
+ * {@link MyParser#postProcessParsingTree} would give it, and the grammar helper kinds get no nodes at all.
+ * <p>
+ * The children of all open nodes are kept one after another in a single list, so the children of a
+ * helper kind simply stay where they are for the node that encloses it.
+ */
+class SyntaxTreeBuilder implements TreeBuilder {
+
+    private final ArrayList<SyntaxNode> children = new ArrayList<>();
+
+    // The open nodes: kind, where its children start in children, its token,
+    // and whether anything has been added to it
+    private AnySyntaxKind[] kinds = new AnySyntaxKind[64];
+    private int[] starts = new int[64];
+    private Token[] tokens = new Token[64];
+    private boolean[] filled = new boolean[64];
+    private int size = 0;
+
+    @Override
+    public void open(AnySyntaxKind kind) {
+        fill();
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+            filled = Arrays.copyOf(filled, capacity);
+        }
+        kinds[size] = kind;
+        starts[size] = children.size();
+        filled[size] = false;
+        size++;
+    }
+
+    @Override
+    public MySyntaxNode close() {
+        size--;
+        AnySyntaxKind kind = kinds[size];
+        Token token = tokens[size];
+        int start = starts[size];
+        boolean hasChildren = filled[size];
+        kinds[size] = null;
+        tokens[size] = null;
+
+        if (kind == AdditionalSyntaxKind.DOT_EXPRESSION || kind == AdditionalSyntaxKind.PARENTHESIZED_LIST_EXPRESSION
+                || kind == AdditionalSyntaxKind.INDEX_EXPRESSION) {
+            extendPrimary(kind);
+            return null;
+        }
+        if (MyParser.isGenerativeKind(kind) ||
+                (kind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) kind).isRemovable())) {
+            return null;
+        }
+        if (kind == AdditionalSyntaxKind.PRIMARY) {
+            // Its atom and tail are already put together
+            return null;
+        }
+        if (kind == AdditionalSyntaxKind.TYPE_NAME && !hasChildren) {
+            // Missing type, the token in its place is reported as unrecognised, as postProcessParsingTree does
+            return null;
+        }
+
+        List<SyntaxNode> nodeChildren = children.subList(start, children.size());
+        // What postProcessParsingTree gives for the children of the node
+        List<SyntaxNode> processed = hasChildren ? new ArrayList<>(nodeChildren) : null;
+        nodeChildren.clear();
+
+        MySyntaxNode node;
+        if (kind instanceof AdditionalSyntaxKind && ((AdditionalSyntaxKind) kind).isListNonTerminal()) {
+            node = new MySyntaxNode(AdditionalSyntaxKind.additionalListToApiList.get(kind));
+            node.addChildren(processed);
+        } else if (kind == SyntaxKind.BOOLEAN) {
+            node = MyParser.booleanLiteral(kind, token);
+        } else if (kind == AdditionalSyntaxKind.TYPE_NAME) {
+            node = MyParser.nameExpression(processed);
+        } else {
+            node = new MySyntaxNode(kind, token);
+            node.syntaxNodes = processed;
+        }
+        children.add(node);
+        return node;
+    }
+
+    @Override
+    public void token(Token token) {
+        tokens[size - 1] = token;
+    }
+
+    @Override
+    public void terminal(AnySyntaxKind kind, Token token) {
+        open(kind);
+        token(token);
+        close();
+    }
+
+    @Override
+    public void reused(MySyntaxNode node) {
+        fill();
+        children.add(node);
+    }
+
+    @Override
+    public int checkpoint() {
+        return children.size();
+    }
+
+    @Override
+    public void wrap(int checkpoint, AnySyntaxKind kind) {
+        fill();
+        wrap(checkpoint, new MySyntaxNode(kind));
+    }
+
+    // Wraps everything of the enclosing PRIMARY so far into the node of a part of its tail
+    private void extendPrimary(AnySyntaxKind tailKind) {
+        int primary = size - 1;
+        while (kinds[primary] != AdditionalSyntaxKind.PRIMARY) {
+            primary--;
+        }
+        wrap(starts[primary], new MySyntaxNode(MyParser.extendedPrimaryKind(tailKind)));
+        // The tail and its part start after the atom, which is now inside the new node
+        for (int i = primary + 1; i < size; i++) {
+            starts[i] = Math.min(starts[i], children.size());
+        }
+    }
+
+    private void wrap(int checkpoint, MySyntaxNode node) {
+        List<SyntaxNode> wrapped = children.subList(checkpoint, children.size());
+        node.addChildren(new ArrayList<>(wrapped));
+        wrapped.clear();
+        children.add(node);
+    }
+
+    private void fill() {
+        if (size > 0) {
+            filled[size - 1] = true;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package nsu.syspro.parser;
+
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static nsu.syspro.parser.PredictionTable.*;
+
+/**
+ * Parses the same way as the recursive descent of {@link MyParser}, with a {@link PredictionTable}
+ * and an explicit stack of the nodes being parsed instead of Java recursion.
+ */
+class TableDrivenParser {
+
+    // Step of a node on the stack that has not looked at the tokens yet
+    private static final int ENTER = -1;
+    // Step of a node that waits for its last child to be parsed
+    private static final int DONE = -2;
+
+    private final PredictionTable table;
+    private final List<Token> tokens;
+    private final ArrayList<Diagnostic> diagnostics;
+    private final ArrayList<TextSpan> invalidRanges;
+    private final List<ReusableNode> reusableNodes;
+    private final SubtreeReuse reuse;
+    private final TreeBuilder builder;
+
+    private int position;
+
+    // What the builder made of the node popped last
+    private MySyntaxNode closed;
+
+    // The stack: table id of the node, the next item of a rule, and where its ReusableNode
+    // goes in reusableNodes or -1, with the position and diagnostics count it started at,
+    // and the ExpressionParser of an expression
+    private int[] ids = new int[64];
+    private int[] steps = new int[64];
+    private int[] records = new int[64];
+    private int[] starts = new int[64];
+    private int[] diagnosticsStarts = new int[64];
+    private ExpressionParser[] expressions = new ExpressionParser[64];
+    private int size = 0;
+
+    TableDrivenParser(PredictionTable table, List<Token> tokens, ArrayList<Diagnostic> diagnostics,
+                      ArrayList<TextSpan> invalidRanges, List<ReusableNode> reusableNodes, SubtreeReuse reuse,
+                      TreeBuilder builder) {
+        this.table = table;
+        this.tokens = tokens;
+        this.diagnostics = diagnostics;
+        this.invalidRanges = invalidRanges;
+        this.reusableNodes = reusableNodes;
+        this.reuse = reuse;
+        this.builder = builder;
+    }
+
+    /**
+     * Parses a node of the given kind from the token at {@code start}.
+     *
+     * @return what the builder made of the node
+     */
+    MySyntaxNode parse(AnySyntaxKind kind, int start) {
+        position = start;
+        push(table.id(kind), -1);
+        while (size > 0) {
+            step();
+        }
+        return closed;
+    }
+
+    /**
+     * @return position of the first token after the parsed node
+     */
+    int position() {
+        return position;
+    }
+
+    private void step() {
+        int top = size - 1;
+        int id = ids[top];
+
+        if (steps[top] == ENTER) {
+            enter(top, id);
+            return;
+        }
+
+        switch (table.type(id)) {
+            case RULE -> {
+                int[] items = table.children(id);
+                if (steps[top] == items.length) {
+                    pop();
+                    return;
+                }
+                push(items[steps[top]++], -1);
+            }
+            case LIST -> {
+                if (position >= tokens.size()) {
+                    pop();
+                    return;
+                }
+                int extended = table.children(id)[0];
+                Token token = tokens.get(position);
+                if (table.predict(extended, token.toSyntaxKind()) == -1) {
+                    pop();
+                } else if (table.type(extended) == TERMINAL) {
+                    builder.terminal(table.kind(extended), token);
+                    position++;
+                } else {
+                    pushChild(extended);
+                }
+            }
+            case EXPRESSION -> {
+                ExpressionParser expression = expressions[top];
+                AnySyntaxKind operand = expression.next(position);
+                position = expression.position();
+                if (operand != null) {
+                    push(table.id(operand), -1);
+                    return;
+                }
+                expression.finish();
+                pop();
+            }
+            default -> pop();
+        }
+    }
+
+    // What the parseRecursive of MyParser does before recursing into the children
+    private void enter(int top, int id) {
+        if (position >= tokens.size()) {
+            pop();
+            return;
+        }
+        Token token = tokens.get(position);
+        int prediction = table.predict(id, token.toSyntaxKind());
+        int type = table.type(id);
+
+        if (prediction == -1) {
+            if (type == SAVED_QUESTION) {
+                builder.open(table.kind(table.children(id)[0]));
+                builder.close();
+            } else if (type != QUESTION && type != LIST) {
+                MyParser.reportUnrecognisedToken(token, diagnostics, invalidRanges);
+                position++;
+            }
+            pop();
+            return;
+        }
+
+        switch (type) {
+            case TERMINAL -> {
+                builder.token(token);
+                position++;
+                pop();
+            }
+            case OR -> {
+                int alternative = table.children(id)[prediction];
+                if (table.type(alternative) == TERMINAL) {
+                    builder.terminal(table.kind(alternative), token);
+                    position++;
+                    pop();
+                } else {
+                    steps[top] = DONE;
+                    pushChild(alternative);
+                }
+            }
+            case QUESTION, SAVED_QUESTION -> {
+                int extended = table.children(id)[0];
+                if (table.type(extended) == TERMINAL) {
+                    builder.terminal(table.kind(extended), token);
+                    position++;
+                    pop();
+                } else {
+                    steps[top] = DONE;
+                    push(extended, -1);
+                }
+            }
+            case EXPRESSION -> {
+                expressions[top] = new ExpressionParser(tokens, diagnostics, invalidRanges, builder);
+                steps[top] = 0;
+            }
+            default -> steps[top] = 0;
+        }
+    }
+
+    // Same as the parseChild of MyParser
+    private void pushChild(int id) {
+        AnySyntaxKind kind = table.kind(id);
+        if (!MyParser.reusableKinds.contains(kind)) {
+            push(id, -1);
+            return;
+        }
+
+        int recordIndex = reusableNodes.size();
+        int index = reuse == null ? -1 : reuse.find(position, kind);
+        if (index != -1) {
+            builder.reused(reuse.reuse(index, diagnostics, invalidRanges, reusableNodes));
+            position = reusableNodes.get(recordIndex).end();
+            return;
+        }
+
+        reusableNodes.add(null);
+        push(id, recordIndex);
+    }
+
+    private void push(int id, int record) {
+        builder.open(table.kind(id));
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            steps = Arrays.copyOf(steps, capacity);
+            records = Arrays.copyOf(records, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            diagnosticsStarts = Arrays.copyOf(diagnosticsStarts, capacity);
+            expressions = Arrays.copyOf(expressions, capacity);
+        }
+        ids[size] = id;
+        steps[size] = ENTER;
+        records[size] = record;
+        starts[size] = position;
+        diagnosticsStarts[size] = diagnostics.size();
+        size++;
+    }
+
+    private void pop() {
+        size--;
+        closed = builder.close();
+        if (records[size] != -1) {
+            reusableNodes.set(records[size], new ReusableNode(closed, starts[size], position,
+                    diagnosticsStarts[size], diagnostics.size()));
+        }
+        expressions[size] = null;
+    }
+}
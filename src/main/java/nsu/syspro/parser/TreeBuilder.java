@@ -0,0 +1,44 @@
+package nsu.syspro.parser;
+
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+
+/**
+ * Receives what a parsing engine finds, in text order. A node is opened before its children
+ * and closed after them.
+ */
+interface TreeBuilder {
+
+    void open(AnySyntaxKind kind);
+
+    /**
+     * @return the node built for the kind opened last, or null if it has no node of its own
+     */
+    MySyntaxNode close();
+
+    /**
+     * Sets the token of the open node, which is of a terminal kind.
+     */
+    void token(Token token);
+
+    /**
+     * Adds a node of a terminal kind with its token.
+     */
+    void terminal(AnySyntaxKind kind, Token token);
+
+    /**
+     * Adds a node of a previous tree, which is already in its final shape.
+     */
+    void reused(MySyntaxNode node);
+
+    /**
+     * @return mark of where the next child of the open node goes, for {@link #wrap}
+     */
+    int checkpoint();
+
+    /**
+     * Moves the children of the open node added since {@code checkpoint} into a new node of the given kind,
+     * which takes their place.
+     */
+    void wrap(int checkpoint, AnySyntaxKind kind);
+}
@@ -0,0 +1,248 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.TokenBuffer;
+import nsu.syspro.parser.nonterms.ListNONTERM;
+import nsu.syspro.parser.nonterms.OrNONTERM;
+import nsu.syspro.parser.nonterms.QuestionNONTERM;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.AnySyntaxKind;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.DiagnosticInfo;
+import syspro.tm.parser.ErrorCode;
+import syspro.tm.parser.TextSpan;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of a {@link MyParser} kept in files of a directory, one file per text, named by a hash of the text.
+ * <p>
+ * A file holds the tokens as a {@link TokenBuffer} and the tree as a {@link GreenTree}, so loading is reading
+ * primitive arrays from a memory mapping, token objects are only made when asked for. The header repeats the hash of the text
+ * together with its length and its {@link String#hashCode()}, and a fingerprint of the {@link Grammar#rules}, a file
+ * that does not match the text, is of another format version, was parsed with another grammar or is cut short is
+ * stale: it is ignored, and replaced on the next {@link #store}.
+ * Loaded results are like {@link MyParseResult#compact()} ones.
+ */
+public class TreeCache {
+
+    private static final int MAGIC = 0x53505443, VERSION = 3;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES + Long.BYTES;
+    // Tells files of trees parsed with other rules apart, even if they have the same kinds of nodes
+    private static final int GRAMMAR_FINGERPRINT = fingerprint(Grammar.rules);
+
+    private final MyParser parser;
+    private final Path directory;
+
+    public TreeCache(MyParser parser, Path directory) {
+        this.parser = parser;
+        this.directory = directory;
+    }
+
+    /**
+     * Same as {@link MyParser#parse(String)}, loading the result if it is cached and storing it otherwise.
+     */
+    public MyParseResult parse(String code) throws IOException {
+        MyParseResult result = load(code);
+        if (result == null) {
+            result = parser.parse(code);
+            store(code, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached result for the text, or null if there is none or it is stale
+     */
+    public MyParseResult load(String code) throws IOException {
+        long hash = ParseCache.hash(code);
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path(hash), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != GRAMMAR_FINGERPRINT
+                    || in.getLong() != hash || in.getInt() != code.length() || in.getInt() != code.hashCode()) {
+                return null;
+            }
+            return read(in, code);
+        } catch (RuntimeException e) {
+            // Cut short, corrupted or written with other kinds of nodes
+            return null;
+        }
+    }
+
+    /**
+     * Writes the result of {@code code} to the directory. Results whose diagnostics are not the ones
+     * {@link MyParser} makes for unrecognised tokens are not stored.
+     *
+     * @return whether the result was stored
+     */
+    public boolean store(String code, MyParseResult result) throws IOException {
+        if (result.root() == null || result.tokens == null) return false;
+        for (Diagnostic diagnostic : result.diagnostics) {
+            if (!isStorable(diagnostic)) return false;
+        }
+        GreenTree tree = GreenTree.of(result.root(), result.tokens);
+        TokenBuffer tokens = tree.tokens();
+        int[] tokenIndices = diagnosticTokens(result.diagnostics, tokens);
+        if (tokenIndices == null) return false;
+
+        long size = HEADER_SIZE + tokens.serializedSize() + tree.serializedSize()
+                + (long) Integer.BYTES * (2 + 3 * result.diagnostics.size() + 2 * result.invalidRanges.size());
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+
+        long hash = ParseCache.hash(code);
+        out.putInt(MAGIC).putInt(VERSION).putInt(GRAMMAR_FINGERPRINT);
+        out.putLong(hash).putInt(code.length()).putInt(code.hashCode());
+        tokens.writeTo(out);
+        tree.writeTo(out);
+        out.putInt(result.diagnostics.size());
+        for (int i = 0; i < result.diagnostics.size(); i++) {
+            Diagnostic diagnostic = result.diagnostics.get(i);
+            out.putInt(tokenIndices[i]);
+            out.putInt(diagnostic.location().start).putInt(diagnostic.location().length);
+        }
+        out.putInt(result.invalidRanges.size());
+        for (TextSpan span : result.invalidRanges) {
+            out.putInt(span.start).putInt(span.length);
+        }
+        out.flip();
+
+        // Written aside and moved in place, so that a file is either complete or missing
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, Long.toHexString(hash), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+            Files.move(temporary, path(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return true;
+    }
+
+    private Path path(long hash) {
+        return directory.resolve(String.format("%016x.tree", hash));
+    }
+
+    private static MyParseResult read(ByteBuffer in, String code) {
+        TokenBuffer tokens = TokenBuffer.readFrom(in);
+        GreenTree tree = GreenTree.readFrom(in, tokens);
+
+        int diagnosticCount = in.getInt();
+        GreenTree.checkCount(in, diagnosticCount, 3 * Integer.BYTES);
+        ArrayList<Diagnostic> diagnostics = new ArrayList<>(diagnosticCount);
+        for (int i = 0; i < diagnosticCount; i++) {
+            Token token = tokens.token(in.getInt());
+            DiagnosticInfo info = new DiagnosticInfo(new UnrecognisedToken(), new Object[]{token});
+            diagnostics.add(new Diagnostic(info, new TextSpan(in.getInt(), in.getInt()), null));
+        }
+        int invalidRangeCount = in.getInt();
+        GreenTree.checkCount(in, invalidRangeCount, 2 * Integer.BYTES);
+        ArrayList<TextSpan> invalidRanges = new ArrayList<>(invalidRangeCount);
+        for (int i = 0; i < invalidRangeCount; i++) {
+            invalidRanges.add(new TextSpan(in.getInt(), in.getInt()));
+        }
+        MyParseResult result = new MyParseResult(tree.root(), invalidRanges, diagnostics, null, tokens.asList(),
+                List.of());
+        result.code = code;
+        return result;
+    }
+
+    /**
+     * @return for each diagnostic the index of its token among {@code tokens}, or null if one is not there.
+     * The tokens of a compact result are made anew on each get, so they are told apart by value: tokens with
+     * the same span, kind and trivia are the same token of the text.
+     */
+    private static int[] diagnosticTokens(List<Diagnostic> diagnostics, TokenBuffer tokens) {
+        int[] indices = new int[diagnostics.size()];
+        if (indices.length == 0) return indices;
+        Arrays.fill(indices, -1);
+        Map<Integer, List<Integer>> byStart = new HashMap<>();
+        for (int i = 0; i < indices.length; i++) {
+            Token token = (Token) diagnostics.get(i).arguments()[0];
+            byStart.computeIfAbsent(token.start, start -> new ArrayList<>()).add(i);
+        }
+        for (int index = 0; index < tokens.size(); index++) {
+            List<Integer> waiting = byStart.get(tokens.start(index));
+            if (waiting == null) continue;
+            for (int i : waiting) {
+                Token token = (Token) diagnostics.get(i).arguments()[0];
+                if (indices[i] == -1 && token.end == tokens.end(index) && token.toSyntaxKind() == tokens.kind(index)
+                        && token.leadingTriviaLength == tokens.leadingTriviaLength(index)
+                        && token.trailingTriviaLength == tokens.trailingTriviaLength(index)) {
+                    indices[i] = index;
+                }
+            }
+        }
+        for (int index : indices) {
+            if (index == -1) return null;
+        }
+        return indices;
+    }
+
+    // Same for the same rules in every run: the rules are a hash map with kinds as keys, so they are described
+    // one by one and the descriptions sorted
+    private static int fingerprint(Map<AnySyntaxKind, List<AnySyntaxKind>> rules) {
+        List<String> descriptions = new ArrayList<>();
+        for (Map.Entry<AnySyntaxKind, List<AnySyntaxKind>> rule : rules.entrySet()) {
+            StringBuilder description = new StringBuilder();
+            describe(rule.getKey(), description);
+            description.append(" :=");
+            for (AnySyntaxKind kind : rule.getValue()) {
+                description.append(' ');
+                describe(kind, description);
+            }
+            descriptions.add(description.toString());
+        }
+        descriptions.sort(null);
+        return descriptions.hashCode();
+    }
+
+    private static void describe(AnySyntaxKind kind, StringBuilder description) {
+        if (kind instanceof QuestionNONTERM question) {
+            description.append(question.saveInParsingTree ? "[" : "(");
+            describe(question.getExtendedKind(), description);
+            description.append(question.saveInParsingTree ? "]?" : ")?");
+        } else if (kind instanceof ListNONTERM list) {
+            description.append('(');
+            describe(list.getExtendedKind(), description);
+            description.append(list.isAllowEmpty() ? ")*" : ")+");
+        } else if (kind instanceof OrNONTERM or) {
+            description.append('(');
+            for (int i = 0; i < or.getPossibleKinds().size(); i++) {
+                if (i > 0) description.append(" | ");
+                describe(or.getPossibleKinds().get(i), description);
+            }
+            description.append(')');
+        } else {
+            description.append(kind.getClass().getSimpleName()).append('.').append(kind);
+        }
+    }
+
+    // The only diagnostic MyParser makes: an unrecognised token, located at it, without hints
+    private static boolean isStorable(Diagnostic diagnostic) {
+        ErrorCode code = diagnostic.errorCode();
+        Object[] arguments = diagnostic.arguments();
+        return code instanceof UnrecognisedToken && arguments.length == 1 && arguments[0] instanceof Token
+                && (diagnostic.hints() == null || diagnostic.hints().isEmpty());
+    }
+}
@@ -8,11 +8,15 @@ import java.util.HashMap;
 public enum AdditionalSyntaxKind implements AnySyntaxKind {
     // Post processed (not removable)
     TYPE_NAME,
-    EXPRESSION,
     PRIMARY,
 
+    // Wraps an already post processed subtree reused by MyParser.reparse
+    REUSED,
+
     // Post process removable
     NAME_GENERIC,
+    // Holds the expression built by ExpressionParser
+    EXPRESSION,
     MEMBER_BLOCK,
     INNER_MEMBER_BLOCK,
     MEMBER_DEF,
@@ -30,9 +34,6 @@ public enum AdditionalSyntaxKind implements AnySyntaxKind {
     DOT_EXPRESSION,
     INDEX_EXPRESSION,
     EXPRESSION_WITH_COMMA,
-    UNARY_EXPRESSION,
-    EXPRESSION_HATCH,
-    BINARY_EXPRESSION_TAIL,
     PARENTHESIZED_LIST_EXPRESSION,
     TYPE_NAME_COMMA,
 
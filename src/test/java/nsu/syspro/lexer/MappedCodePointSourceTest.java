@@ -0,0 +1,70 @@
+package nsu.syspro.lexer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static nsu.syspro.lexer.ParallelLexerTest.PROGRAMS;
+import static nsu.syspro.lexer.ParallelLexerTest.describe;
+import static nsu.syspro.lexer.ParallelLexerTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares lexing a memory-mapped UTF-8 file with lexing its text, for ASCII files and for files with code points
+ * of two, three and four bytes, where the ASCII fast path does not apply.
+ */
+class MappedCodePointSourceTest {
+
+    // Code points of every UTF-8 length in identifiers, strings, runes and comments
+    private static final String NON_ASCII = """
+            # Комментарий ∑ 😀
+            class Тип<Т>
+                def имя(x: Т): String
+                    return "é∑😀" + 'ж' + '😀'
+                val 𝑥: Int64
+            object Ω
+                def f()
+                    # 😀😀😀 at the end of a line 😀
+                    y = "\\U+1F600 😀" + "€"
+            """;
+
+    @Test
+    void asciiFilesGiveSameTokens() throws IOException {
+        Random random = new Random(59);
+        for (String program : PROGRAMS) {
+            assertSameTokens(program);
+            assertSameTokens(mutate(program, random));
+        }
+        assertSameTokens("");
+    }
+
+    @Test
+    void nonAsciiFilesGiveSameTokens() throws IOException {
+        Random random = new Random(61);
+        assertSameTokens(NON_ASCII);
+        for (int i = 0; i < 50; i++) {
+            assertSameTokens(mutate(NON_ASCII, random));
+        }
+        // Non-ASCII text only at the very end, after a long ASCII part
+        assertSameTokens(String.join("", PROGRAMS) + "x = 'ж'\n");
+        assertSameTokens(NON_ASCII + String.join("", PROGRAMS));
+    }
+
+    // Writes the text to a temporary file and lexes it through a mapping, as a list and as a stream
+    private static void assertSameTokens(String code) throws IOException {
+        Path file = Files.createTempFile("mapped", ".syspro");
+        try {
+            Files.writeString(file, code, StandardCharsets.UTF_8);
+            List<String> expected = describe(new MyLexer().lex(code));
+            assertEquals(expected, describe(new MyLexer().lex(file)), () -> code.replace("\n", "\\n"));
+            assertEquals(expected, describe(new MyLexer().stream(file).toList()), () -> code.replace("\n", "\\n"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
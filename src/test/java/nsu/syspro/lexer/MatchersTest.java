@@ -0,0 +1,119 @@
+package nsu.syspro.lexer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the literal matchers with the regular expressions they replaced, on generated code point ranges.
+ */
+class MatchersTest {
+
+    private static final String INTEGER = "[0-9]+(i32|i64|u32|u64)?";
+
+    private static final String RUNE;
+    private static final String STRING;
+
+    static {
+        String shortEscape = "\\\\[0abrnvt'\"\\\\]";
+        String unicodeEscape = "\\\\U\\+[0-9A-F]{4,5}";
+        String escape = "(" + shortEscape + "|" + unicodeEscape + ")";
+        RUNE = "'([^'\r\n]|" + escape + ")'";
+        STRING = "\"([^\"\r\n]|" + escape + ")*\"";
+    }
+
+    // Pieces the ranges are made of, the ones close to the literal grammars are the interesting ones
+    private static final String[] PIECES = {
+            "'", "\"", "\\", "U", "+", "U+", "0", "7", "9", "A", "F", "G", "f", "1F600", "ABCD", "0041",
+            "\\U+", "00G1", "a", "n", "q", "x", "i", "u", "32", "64", "i32", "u64", "i6",
+            "\\n", "\\'", "\\\"", "\\\\", "\\q",
+            " ", "\t", "\r", "\n", "\r\n", "\uD83D\uDE00", "é",
+    };
+
+    @Test
+    void integerLiteralsMatchRegex() {
+        forEachRange((text, start, end) -> assertEquals(
+                text.substring(start, end).matches(INTEGER),
+                Matchers.isIntegerLiteral(start, end - 1, text.codePoints()),
+                () -> describe(text, start, end)));
+    }
+
+    @Test
+    void runeLiteralsMatchRegex() {
+        forEachRange((text, start, end) -> assertEquals(
+                text.substring(start, end).matches(RUNE),
+                Matchers.isRuneLiteral(start, end - 1, text.codePoints()),
+                () -> describe(text, start, end)));
+    }
+
+    @Test
+    void stringLiteralsMatchRegex() {
+        forEachRange((text, start, end) -> assertEquals(
+                text.substring(start, end).matches(STRING),
+                Matchers.isStringLiteral(start, end - 1, text.codePoints()),
+                () -> describe(text, start, end)));
+    }
+
+    private interface RangeCheck {
+        void check(Text text, int start, int end);
+    }
+
+    /**
+     * Code points of a generated text, with substrings in code point coordinates.
+     */
+    private record Text(String string, CodePointBuffer codePoints) {
+
+        String substring(int start, int end) {
+            return string.substring(string.offsetByCodePoints(0, start), string.offsetByCodePoints(0, end));
+        }
+    }
+
+    // Every range of short texts and of random ones between quotes, and whole quoted texts of three pieces
+    private static void forEachRange(RangeCheck check) {
+        List<String> texts = new ArrayList<>();
+        for (String first : PIECES) {
+            for (String second : PIECES) {
+                texts.add(first + second);
+            }
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder builder = new StringBuilder(random.nextBoolean() ? "'" : "\"");
+            int count = random.nextInt(8);
+            for (int j = 0; j < count; j++) {
+                builder.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            builder.append(random.nextBoolean() ? "'" : "\"");
+            texts.add(builder.toString());
+        }
+        for (String string : texts) {
+            Text text = new Text(string, CodePointBuffer.of(string));
+            int size = text.codePoints.size();
+            for (int start = 0; start < size; start++) {
+                for (int end = start + 1; end <= size; end++) {
+                    check.check(text, start, end);
+                }
+            }
+        }
+
+        for (String first : PIECES) {
+            for (String second : PIECES) {
+                for (String third : PIECES) {
+                    for (String quote : new String[]{"'", "\""}) {
+                        String string = quote + first + second + third + quote;
+                        Text text = new Text(string, CodePointBuffer.of(string));
+                        check.check(text, 0, text.codePoints.size());
+                    }
+                }
+            }
+        }
+    }
+
+    private static String describe(Text text, int start, int end) {
+        return "[" + start + ", " + end + ") of " + text.string.replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
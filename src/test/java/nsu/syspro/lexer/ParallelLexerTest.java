@@ -0,0 +1,178 @@
+package nsu.syspro.lexer;
+
+import org.junit.jupiter.api.Test;
+import syspro.tm.lexer.Token;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares lexing in chunks with lexing in one go, with chunks starting at indented lines, where the indentation
+ * state is guessed and the guess is often wrong.
+ */
+class ParallelLexerTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    static final String[] PROGRAMS = {
+            """
+            class Deep
+                def f(): Int64
+                    if a
+                        if b
+                            while c
+                                x = 1
+                            y = 2
+                        z = 3
+                    return 4
+                def g()
+                    pass
+            """,
+            """
+            # comment before the first token
+            class Comments
+                # at the level of the members
+                def f()
+                        # deeper than the statements
+                    x = 1
+            # at no level at all
+                    y = 2
+                  # between two levels
+
+                    z = 3
+            """,
+            """
+            class Odd
+               def f()
+                     x = 1
+                   y = 2
+                 z = 3
+              w = 4
+            object O
+            \tdef g()
+            \t\tx = "string # not a comment"
+            \t  y = 'r'
+            """,
+            """
+            class A
+                def f()
+                    x = 1
+
+
+                            y = 2
+                    z = 3
+                def g()
+                    h()
+            class B<T>
+                val t: T
+            """,
+    };
+
+    private static final String[] PIECES = {" ", "  ", "    ", "\t", "\n", "\n    ", "# c\n", "    # c\n", "x", "def"};
+
+    @Test
+    void chunksAtEveryLineGiveSameTokens() {
+        Random random = new Random(31);
+        for (String program : PROGRAMS) {
+            assertSameTokens(program, lines -> lines);
+            for (int i = 0; i < 200; i++) {
+                assertSameTokens(mutate(program, random), lines -> lines);
+            }
+        }
+    }
+
+    @Test
+    void chunksAtRandomLinesGiveSameTokens() {
+        Random random = new Random(37);
+        for (String program : PROGRAMS) {
+            for (int i = 0; i < 200; i++) {
+                String code = i % 2 == 0 ? program : mutate(program, random);
+                assertSameTokens(code, lines -> {
+                    List<Integer> cuts = new ArrayList<>();
+                    for (int line : lines) {
+                        if (random.nextInt(3) == 0) cuts.add(line);
+                    }
+                    return cuts;
+                });
+            }
+        }
+    }
+
+    @Test
+    void largeTextGivesSameTokens() {
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(41);
+        while (builder.length() < 1 << 19) {
+            String program = PROGRAMS[random.nextInt(PROGRAMS.length)];
+            builder.append(random.nextBoolean() ? program : mutate(program, random));
+        }
+        String code = builder.toString();
+        List<String> expected = describe(new MyLexer().lex(code));
+        for (int parallelism : new int[]{1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                assertEquals(expected, describe(new MyLexer().lex(code, pool)), () -> parallelism + " threads");
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    private interface CutChoice {
+        List<Integer> choose(List<Integer> lines);
+    }
+
+    private static void assertSameTokens(String code, CutChoice choice) {
+        CodePointBuffer text = CodePointBuffer.of(code);
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        cuts.addAll(choice.choose(resumableLines(text)));
+        assertEquals(describe(new TokenStream(text).toList()), describe(ParallelLexer.lex(text, cuts, POOL)),
+                () -> "chunks at " + cuts + " of " + code.replace("\n", "\\n"));
+    }
+
+    // Starts of the lines where a chunk can start, those with a real token after the line of the first one
+    private static List<Integer> resumableLines(CodePointBuffer text) {
+        List<Integer> lines = new ArrayList<>();
+        boolean first = true;
+        for (int line = 0; line < text.size(); ) {
+            if (ParallelLexer.isResumable(text, line)) {
+                if (!first) lines.add(line);
+                first = false;
+            }
+            while (line < text.size() && text.get(line) != '\n') {
+                line++;
+            }
+            line++;
+        }
+        return lines;
+    }
+
+    // Inserts pieces of indentation, comments, line breaks and tokens at line starts and deletes a few code points
+    static String mutate(String program, Random random) {
+        StringBuilder builder = new StringBuilder(program);
+        int count = 1 + random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            int position = builder.lastIndexOf("\n", random.nextInt(builder.length())) + 1;
+            if (random.nextInt(4) == 0) {
+                builder.delete(position, Math.min(builder.length(), position + 1 + random.nextInt(3)));
+            } else {
+                builder.insert(position, PIECES[random.nextInt(PIECES.length)]);
+            }
+        }
+        return builder.toString();
+    }
+
+    static List<String> describe(List<Token> tokens) {
+        List<String> result = new ArrayList<>(tokens.size());
+        for (Token token : tokens) {
+            result.add(token.start + ".." + token.end + " " + token.leadingTriviaLength + "/"
+                    + token.trailingTriviaLength + " " + token);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package nsu.syspro.lexer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static nsu.syspro.lexer.ParallelLexerTest.PROGRAMS;
+import static nsu.syspro.lexer.ParallelLexerTest.describe;
+import static nsu.syspro.lexer.ParallelLexerTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares lexing from a {@link java.io.Reader} through windows smaller than the tokens, and from a channel,
+ * with lexing the whole text.
+ */
+class ReaderCodePointSourceTest {
+
+    private static final int[] WINDOW_SIZES = {2, 3, 4, 7, 16, 64};
+
+    // Tokens and trivia longer than the windows, and code points made of two chars
+    private static final String[] LONG_TOKENS = {
+            "class " + "Long".repeat(40) + "\n    val x: Int64\n",
+            "class A\n    def f()\n        return \"" + "string \\\"".repeat(30) + "\"\n",
+            "# " + "comment ".repeat(30) + "\nclass A\n" + " ".repeat(100) + "def f()\n",
+            "class A\n    def f()\n        return \"😀é😀\" + '😀' # 😀😀\n",
+            "class A\n    def f()\n        return 12345678901234567890i64 + " + "9".repeat(50) + "\n",
+    };
+
+    @Test
+    void smallWindowsGiveSameTokens() {
+        Random random = new Random(53);
+        for (String program : PROGRAMS) {
+            assertSameTokens(program);
+            for (int i = 0; i < 50; i++) {
+                assertSameTokens(mutate(program, random));
+            }
+        }
+        for (String code : LONG_TOKENS) {
+            assertSameTokens(code);
+        }
+        assertSameTokens(String.join("", LONG_TOKENS) + String.join("", PROGRAMS));
+    }
+
+    // Over readers giving the whole window at once and giving one char per read, and over UTF-8 bytes
+    private static void assertSameTokens(String code) {
+        List<String> expected = describe(new MyLexer().lex(code));
+        ReadableByteChannel channel =
+                Channels.newChannel(new ByteArrayInputStream(code.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(expected, describe(new MyLexer().stream(channel).toList()), () -> code.replace("\n", "\\n"));
+        for (int windowSize : WINDOW_SIZES) {
+            assertEquals(expected, describe(new MyLexer().stream(new StringReader(code), windowSize).toList()),
+                    () -> "window of " + windowSize + " on " + code.replace("\n", "\\n"));
+            assertEquals(expected, describe(new MyLexer().stream(new OneCharReader(code), windowSize).toList()),
+                    () -> "window of " + windowSize + " read by chars on " + code.replace("\n", "\\n"));
+        }
+    }
+
+    // Splits surrogate pairs and lines between reads
+    private static final class OneCharReader extends FilterReader {
+
+        OneCharReader(String code) {
+            super(new StringReader(code));
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Parses deeply nested input on a thread with a small stack, which only works if neither parsing
+ * nor post processing recurses as deep as the tree is.
+ */
+class DeepInputTest {
+
+    private static final int STACK_SIZE = 256 * 1024;
+    private static final int DEPTH = 10_000;
+
+    @Test
+    void nestedParentheses() {
+        assertParses(function("return " + "(".repeat(DEPTH) + "a" + ")".repeat(DEPTH)));
+    }
+
+    @Test
+    void longBinaryChain() {
+        assertParses(function("return a" + " + a".repeat(DEPTH)));
+    }
+
+    @Test
+    void nestedUnaryOperators() {
+        assertParses(function("return " + "-".repeat(DEPTH) + "a"));
+    }
+
+    @Test
+    void nestedIndexing() {
+        assertParses(function("return " + "a[".repeat(DEPTH) + "0" + "]".repeat(DEPTH)));
+    }
+
+    @Test
+    void nestedBlocks() {
+        StringBuilder code = new StringBuilder("class A\n    def f()\n");
+        for (int i = 0; i < 2_000; i++) {
+            code.append("    ".repeat(i + 2)).append("if a\n");
+        }
+        code.append("    ".repeat(2_002)).append("return a\n");
+        assertParses(code.toString());
+    }
+
+    private static String function(String statement) {
+        return "class A\n    def f()\n        " + statement + "\n";
+    }
+
+    // With every engine and builder, then takes the full span and the compact form of the result
+    private static void assertParses(String code) {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                for (MyParser.Engine engine : MyParser.Engine.values()) {
+                    for (boolean direct : new boolean[]{false, true}) {
+                        String configuration = engine + (direct ? " direct" : "");
+                        MyParseResult result = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct)
+                                .parse(code);
+                        assertEquals(List.of(), result.diagnostics(), configuration);
+                        assertEquals(code.length(), result.root().fullSpan().end(), configuration);
+                        assertEquals(code.length(), result.compact().root().fullSpan().end(), configuration);
+                    }
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "deep input", STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (failure[0] != null) {
+            throw new AssertionError("Failed on a " + STACK_SIZE + " byte stack", failure[0]);
+        }
+    }
+}
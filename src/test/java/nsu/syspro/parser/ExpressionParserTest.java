@@ -0,0 +1,78 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+import syspro.tm.parser.ParseResult;
+import syspro.tm.parser.SyntaxKind;
+import syspro.tm.parser.SyntaxNode;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the nesting of parsed expressions, which tells operators of the wrong precedence or associativity apart.
+ */
+class ExpressionParserTest {
+
+    @Test
+    void higherPrecedenceBindsTighter() {
+        assertShape("a + b * c", "ADD_EXPRESSION(a + MULTIPLY_EXPRESSION(b * c))");
+        assertShape("-a * b", "MULTIPLY_EXPRESSION(UNARY_MINUS_EXPRESSION(- a) * b)");
+        assertShape("a & b == c", "BITWISE_AND_EXPRESSION(a & EQUALS_EXPRESSION(b == c))");
+        assertShape("a << b + c", "BITWISE_LEFT_SHIFT_EXPRESSION(a << ADD_EXPRESSION(b + c))");
+        assertShape("a | b ^ c & d",
+                "BITWISE_OR_EXPRESSION(a | BITWISE_EXCLUSIVE_OR_EXPRESSION(b ^ BITWISE_AND_EXPRESSION(c & d)))");
+        assertShape("a && b || c && d",
+                "LOGICAL_OR_EXPRESSION(LOGICAL_AND_EXPRESSION(a && b) || LOGICAL_AND_EXPRESSION(c && d))");
+    }
+
+    @Test
+    void binaryOperatorsAreLeftAssociative() {
+        assertShape("a - b - c", "SUBTRACT_EXPRESSION(SUBTRACT_EXPRESSION(a - b) - c)");
+    }
+
+    @Test
+    void isBindsLikeComparison() {
+        assertShape("a == b is T", "EQUALS_EXPRESSION(a == IS_EXPRESSION(b is IDENTIFIER_NAME_EXPRESSION(T)))");
+        assertShape("!a is T", "IS_EXPRESSION(LOGICAL_NOT_EXPRESSION(! a) is IDENTIFIER_NAME_EXPRESSION(T))");
+        assertShape("a is T t == b", "EQUALS_EXPRESSION(IS_EXPRESSION(a is IDENTIFIER_NAME_EXPRESSION(T) t) == b)");
+    }
+
+    // Parses the expression after a return with every engine and builder
+    private static void assertShape(String expression, String expected) {
+        String code = "class A\n    def f()\n        return " + expression + "\n";
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ParseResult result = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct).parse(code);
+                assertEquals(List.of(), result.diagnostics(), expression);
+                assertEquals(expected, shape(returned(result.root())),
+                        () -> engine + (direct ? " direct" : "") + " on " + expression);
+            }
+        }
+    }
+
+    // Expression of the first return statement in the tree
+    private static SyntaxNode returned(SyntaxNode node) {
+        if (node == null || node.token() != null) return null;
+        if (node.kind() == SyntaxKind.RETURN_STATEMENT) return node.slot(1);
+        for (int i = 0; i < node.slotCount(); i++) {
+            SyntaxNode expression = returned(node.slot(i));
+            if (expression != null) return expression;
+        }
+        return null;
+    }
+
+    // Kinds of the nodes with the tokens in between, as in KIND(a + KIND(b * c))
+    private static String shape(SyntaxNode node) {
+        if (node == null) return "null";
+        if (node.token() != null) return node.token().toString();
+        StringBuilder out = new StringBuilder().append(node.kind()).append('(');
+        String separator = "";
+        for (int i = 0; i < node.slotCount(); i++) {
+            if (node.slot(i) == null) continue;
+            out.append(separator).append(shape(node.slot(i)));
+            separator = " ";
+        }
+        return out.append(')').toString();
+    }
+}
@@ -0,0 +1,86 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.CodePointBuffer;
+import org.junit.jupiter.api.Test;
+import syspro.tm.lexer.Keyword;
+import syspro.tm.lexer.Token;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PROGRAMS;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.dump;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares parsing the type definitions of a text in parallel with parsing it in one go, including texts where
+ * the guessed starts of type definitions are wrong.
+ */
+class ParallelParseTest {
+
+    private static final ForkJoinPool[] POOLS = {new ForkJoinPool(1), new ForkJoinPool(4)};
+
+    @Test
+    void wellFormedProgramsGiveSameResult() {
+        assertSameResults(String.join("\n", PROGRAMS));
+        assertSameResults(String.join("\n", PROGRAMS).repeat(8));
+    }
+
+    @Test
+    void brokenProgramsGiveSameResult() {
+        Random random = new Random(43);
+        String programs = String.join("\n", PROGRAMS);
+        for (int i = 0; i < 200; i++) {
+            assertSameResults(mutate(programs, random));
+        }
+    }
+
+    @Test
+    void guessInsideEarlierDefinitionIsNotTaken() {
+        // The type parameters of A go on over the line of B, so A ends after where B was guessed to start
+        String code = "class A<T,\nclass B\n    var x: Int64\n";
+        assertSameResults(code);
+        assertSameResults(code + String.join("\n", PROGRAMS));
+        assertSameResults(String.join("\n", PROGRAMS) + "\n" + code + String.join("\n", PROGRAMS));
+    }
+
+    @Test
+    void definitionThrowingOnItsOwnIsParsedInPlace() {
+        String code = String.join("\n", PROGRAMS);
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                MyParser parser = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct) {
+                    // As if the objects and interfaces could not be parsed on their own
+                    @Override
+                    MyParseResult parseTypeDefinition(CodePointBuffer text, List<Token> tokens, int position) {
+                        if (tokens.get(position).toSyntaxKind() != Keyword.CLASS) {
+                            throw new IllegalStateException("Not parsed on its own");
+                        }
+                        return super.parseTypeDefinition(text, tokens, position);
+                    }
+                };
+                assertSameResults(parser, code, engine + (direct ? " direct" : ""));
+            }
+        }
+    }
+
+    // With every engine and builder, on pools of one and more threads
+    private static void assertSameResults(String code) {
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                MyParser parser = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct);
+                assertSameResults(parser, code, engine + (direct ? " direct" : ""));
+            }
+        }
+    }
+
+    private static void assertSameResults(MyParser parser, String code, String configuration) {
+        String expected = dump(parser.parse(code));
+        for (ForkJoinPool pool : POOLS) {
+            assertEquals(expected, dump(parser.parse(code, pool)), () -> configuration + " with "
+                    + pool.getParallelism() + " threads on " + code.replace("\n", "\\n"));
+        }
+    }
+}
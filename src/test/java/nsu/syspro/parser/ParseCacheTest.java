@@ -0,0 +1,95 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.TextSpan;
+
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PROGRAMS;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.dump;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks the counters, the eviction by entries and by bytes, and that cached results cannot be changed.
+ */
+class ParseCacheTest {
+
+    // Same estimated size as PROGRAMS[0], an identifier is replaced by another one of the same length
+    private static final String RENAMED = PROGRAMS[0].replace("Point", "Pixel");
+
+    @Test
+    void countsHitsAndMisses() {
+        ParseCache cache = new ParseCache(new MyParser(), 10, Long.MAX_VALUE);
+        MyParseResult first = cache.parse(PROGRAMS[0]);
+        assertSame(first, cache.parse(PROGRAMS[0]));
+        cache.parse(PROGRAMS[1]);
+        assertSame(first, cache.parse(PROGRAMS[0]));
+        assertEquals(dump(new MyParser().parse(PROGRAMS[0])), dump(first));
+
+        ParseCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(0, stats.evictions());
+        assertEquals(2, stats.entries());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        ParseCache cache = new ParseCache(new MyParser(), 2, Long.MAX_VALUE);
+        cache.parse(PROGRAMS[0]);
+        cache.parse(PROGRAMS[1]);
+        cache.parse(PROGRAMS[0]);
+        // PROGRAMS[1] was used least recently
+        cache.parse(PROGRAMS[2]);
+        assertEquals(new ParseCache.Stats(1, 3, 1, 2, cache.stats().bytes()), cache.stats());
+
+        cache.parse(PROGRAMS[0]);
+        assertEquals(2, cache.stats().hits());
+        cache.parse(PROGRAMS[1]);
+        assertEquals(4, cache.stats().misses());
+        assertEquals(2, cache.stats().evictions());
+    }
+
+    @Test
+    void evictsBeyondMaxBytes() {
+        ParseCache measure = new ParseCache(new MyParser(), 10, Long.MAX_VALUE);
+        measure.parse(PROGRAMS[0]);
+        long bytes = measure.stats().bytes();
+        measure.parse(RENAMED);
+        assertEquals(2 * bytes, measure.stats().bytes());
+
+        ParseCache cache = new ParseCache(new MyParser(), 10, bytes);
+        cache.parse(PROGRAMS[0]);
+        cache.parse(RENAMED);
+        assertEquals(new ParseCache.Stats(0, 2, 1, 1, bytes), cache.stats());
+        cache.parse(RENAMED);
+        assertEquals(1, cache.stats().hits());
+
+        // A result larger than the whole cache is not kept
+        ParseCache small = new ParseCache(new MyParser(), 10, bytes - 1);
+        small.parse(PROGRAMS[0]);
+        small.parse(PROGRAMS[0]);
+        assertEquals(new ParseCache.Stats(0, 2, 0, 0, 0), small.stats());
+    }
+
+    @Test
+    void keepsNothingWithoutEntries() {
+        ParseCache cache = new ParseCache(new MyParser(), 0, Long.MAX_VALUE);
+        MyParseResult result = cache.parse(PROGRAMS[0]);
+        cache.parse(PROGRAMS[0]);
+        assertEquals(new ParseCache.Stats(0, 2, 0, 0, 0), cache.stats());
+        assertEquals(dump(new MyParser().parse(PROGRAMS[0])), dump(result));
+    }
+
+    @Test
+    void cachedResultsCannotBeChanged() {
+        ParseCache cache = new ParseCache(new MyParser(), 10, Long.MAX_VALUE);
+        MyParseResult result = cache.parse("class A\n    def f()\n        return @\n");
+        assertEquals(1, result.diagnostics().size());
+        Diagnostic diagnostic = result.diagnostics().iterator().next();
+        assertThrows(UnsupportedOperationException.class, () -> result.diagnostics().add(diagnostic));
+        assertThrows(UnsupportedOperationException.class, () -> result.invalidRanges().add(new TextSpan(0, 1)));
+        assertThrows(UnsupportedOperationException.class, () -> result.diagnostics().clear());
+    }
+}
@@ -0,0 +1,148 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+import syspro.tm.lexer.IndentationToken;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.SyntaxNode;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PROGRAMS;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the position queries of parse results with scans over all nodes and tokens, on well-formed programs
+ * and on programs broken in all sorts of ways.
+ */
+class PositionIndexTest {
+
+    @Test
+    void blockEndingInUnrecognisedTokens() {
+        // The block ends in tokens left out of the tree, so the function only reaches its end through dedents
+        assertSameAnswers("""
+                class Loops
+                    def f(xs: List<Int64>): Int64
+                        var sum: Int64
+                        for x in xs
+                       native     if x == 0
+                                continue
+                """);
+    }
+
+    @Test
+    void wellFormedProgramsGiveSameAnswers() {
+        for (String program : PROGRAMS) {
+            assertSameAnswers(program);
+        }
+        assertSameAnswers(String.join("\n", PROGRAMS));
+    }
+
+    @Test
+    void brokenProgramsGiveSameAnswers() {
+        Random random = new Random(19);
+        for (String program : PROGRAMS) {
+            for (int i = 0; i < 300; i++) {
+                assertSameAnswers(mutate(program, random));
+            }
+        }
+    }
+
+    private static void assertSameAnswers(String code) {
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            MyParseResult result = (MyParseResult) new MyParser(engine).parse(code);
+            assertSameAnswers(result, code);
+            assertSameAnswers(result.compact(), code);
+        }
+    }
+
+    private static void assertSameAnswers(MyParseResult result, String code) {
+        List<Spanned> nodes = nodesInPreOrder(result.root());
+        int length = code.codePointCount(0, code.length());
+        for (int offset = 0; offset <= length + 1; offset++) {
+            int at = offset;
+            SyntaxNode node = result.nodeAt(offset);
+            assertEquals(nodeAt(nodes, offset), node, () -> "nodeAt " + at + " gave " + describe(node) + describe(code));
+            assertEquals(describe(tokenAt(result.tokens, offset)), describe(result.tokenAt(offset)),
+                    () -> "tokenAt " + at + describe(code));
+            for (int rangeLength : new int[]{0, 1, 7}) {
+                TextSpan range = new TextSpan(offset, rangeLength);
+                List<SyntaxNode> overlapping = result.nodesOverlapping(range);
+                assertEquals(nodesOverlapping(nodes, range), overlapping,
+                        () -> "nodesOverlapping " + range + " gave " + describe(overlapping) + describe(code));
+            }
+        }
+    }
+
+    private record Spanned(SyntaxNode node, TextSpan span) {
+    }
+
+    // Nodes with a full span, other than indentation tokens
+    private static List<Spanned> nodesInPreOrder(SyntaxNode root) {
+        List<Spanned> nodes = new ArrayList<>();
+        ArrayDeque<SyntaxNode> stack = new ArrayDeque<>();
+        if (root != null) stack.push(root);
+        while (!stack.isEmpty()) {
+            SyntaxNode node = stack.pop();
+            TextSpan span = node.fullSpan();
+            if (span != null && !(node.token() instanceof IndentationToken)) nodes.add(new Spanned(node, span));
+            for (int i = node.slotCount() - 1; i >= 0; i--) {
+                if (node.slot(i) != null) stack.push(node.slot(i));
+            }
+        }
+        return nodes;
+    }
+
+    // Shortest full span containing the offset, the last one in pre-order of those
+    private static SyntaxNode nodeAt(List<Spanned> nodes, int offset) {
+        Spanned best = null;
+        for (Spanned node : nodes) {
+            if (node.span.contains(offset) && (best == null || node.span.length <= best.span.length)) {
+                best = node;
+            }
+        }
+        return best == null ? null : best.node;
+    }
+
+    private static Token tokenAt(List<Token> tokens, int offset) {
+        for (Token token : tokens) {
+            if (!(token instanceof IndentationToken) && token.start <= offset && offset <= token.end) return token;
+        }
+        return null;
+    }
+
+    private static List<SyntaxNode> nodesOverlapping(List<Spanned> nodes, TextSpan range) {
+        List<SyntaxNode> result = new ArrayList<>();
+        for (Spanned node : nodes) {
+            boolean overlaps = range.length == 0
+                    ? node.span.contains(range.start)
+                    : node.span.start < range.end() && range.start < node.span.end();
+            if (overlaps) result.add(node.node);
+        }
+        return result;
+    }
+
+    private static String describe(Token token) {
+        return token == null ? "null" : token.start + ".." + token.end + " " + token;
+    }
+
+    private static String describe(SyntaxNode node) {
+        return node == null ? "null" : node.kind() + " " + node.fullSpan();
+    }
+
+    private static List<String> describe(List<SyntaxNode> nodes) {
+        List<String> result = new ArrayList<>();
+        for (SyntaxNode node : nodes) {
+            result.add(describe(node));
+        }
+        return result;
+    }
+
+    private static String describe(String code) {
+        return " on " + code.replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,88 @@
+package nsu.syspro.parser;
+
+import nsu.syspro.lexer.TextEdit;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PIECES;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PROGRAMS;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.dump;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that reparsing after an edit gives the same result as parsing the edited text from scratch,
+ * over chains of edits where each reparse starts from the previous one.
+ */
+class ReparseTest {
+
+    @Test
+    void editsOfWellFormedProgramsGiveSameResult() {
+        Random random = new Random(23);
+        for (String program : PROGRAMS) {
+            for (int i = 0; i < 20; i++) {
+                assertSameResults(program, random);
+            }
+        }
+        assertSameResults(String.join("\n", PROGRAMS), random);
+    }
+
+    @Test
+    void editsOfBrokenProgramsGiveSameResult() {
+        Random random = new Random(29);
+        for (String program : PROGRAMS) {
+            for (int i = 0; i < 60; i++) {
+                assertSameResults(mutate(program, random), random);
+            }
+        }
+    }
+
+    // Applies a chain of random edits to the code, reparsing each time with every engine and builder
+    private static void assertSameResults(String code, Random random) {
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                MyParser parser = new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct);
+                String text = code;
+                MyParseResult result = parser.parse(text);
+                for (int i = 0; i < 10; i++) {
+                    TextEdit edit = randomEdit(text, random);
+                    String edited = apply(text, edit);
+                    MyParseResult previous = random.nextInt(8) == 0 ? result.compact() : result;
+                    result = parser.reparse(previous, edit);
+                    String before = text;
+                    assertEquals(dump(parser.parse(edited)), dump(result), () -> engine + (direct ? " direct" : "")
+                            + " on " + describe(before) + " with " + edit);
+                    text = edited;
+                }
+            }
+        }
+    }
+
+    // Deletes a few code points, inserts a piece, or both. Half of the edits are at the start of a line's first token,
+    // where they change which statement or member the line is, next to the nodes that are reused
+    private static TextEdit randomEdit(String text, Random random) {
+        int length = text.codePointCount(0, text.length());
+        int offset = random.nextInt(length + 1);
+        if (random.nextBoolean()) {
+            int lineStart = text.lastIndexOf('\n', text.offsetByCodePoints(0, offset) - 1) + 1;
+            while (lineStart < text.length() && text.charAt(lineStart) == ' ') {
+                lineStart++;
+            }
+            offset = text.codePointCount(0, lineStart);
+        }
+        int removed = random.nextInt(3) == 0 ? 0 : Math.min(length - offset, random.nextInt(4));
+        String inserted = removed > 0 && random.nextBoolean() ? "" : PIECES[random.nextInt(PIECES.length)];
+        return new TextEdit(offset, removed, inserted);
+    }
+
+    private static String apply(String text, TextEdit edit) {
+        int start = text.offsetByCodePoints(0, edit.offset());
+        int end = text.offsetByCodePoints(start, edit.removedLength());
+        return text.substring(0, start) + edit.insertedText() + text.substring(end);
+    }
+
+    private static String describe(String code) {
+        return code.replace("\n", "\\n");
+    }
+}
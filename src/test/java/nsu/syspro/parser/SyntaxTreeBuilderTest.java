@@ -0,0 +1,196 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+import syspro.tm.lexer.Token;
+import syspro.tm.parser.Diagnostic;
+import syspro.tm.parser.ParseResult;
+import syspro.tm.parser.SyntaxNode;
+import syspro.tm.parser.TextSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that building the syntax tree directly gives the same result as post processing the parsing tree,
+ * and that the table-driven engine gives the same result as the recursive descent, on well-formed programs
+ * and on programs broken in all sorts of ways.
+ */
+class SyntaxTreeBuilderTest {
+
+    // Programs the grammar accepts, together covering every kind of definition, statement and expression
+    static final String[] PROGRAMS = {
+            """
+            class Point<T <: Comparable<T>, U>
+                var x: Int64
+                var y: ?T
+                def move(dx: Int64, dy: Int64): Unit
+                    x = x + dx
+                    if y is T t
+                        return t.compare(dy) < 0
+                # distance to the origin
+                def length(): Int64
+                    return x * x + 1u32
+            """,
+            """
+            object Text
+                def text(): String
+                    return "Lorem \\"ipsum\\" \\U+1F600" + 'a' + '\\n'
+            """,
+            """
+            interface Shape<T> <: Base & Other<T>
+                abstract def area(): Int64
+                    return 0
+                native def name(): String
+                    return "shape"
+            """,
+            """
+            class Loops
+                def f(xs: List<Int64>): Int64
+                    var sum: Int64
+                    for x in xs
+                        if x == 0
+                            continue
+                        else
+                            sum = sum + x[0]
+                        break
+                    return -sum * ~1 - !true % +2
+            """,
+            """
+            object Chain
+                def f(a: Int64, b: Int64): Int64
+                    return a + b * 3 - a / b && a || b < 4 == b << 5 % a & b | a ^ b <= 6 >> 7 != null
+                def g(): Unit
+                    this.f(1, 2).h()[3] = super.x
+                    return
+            """,
+    };
+
+    // Pieces to break programs with
+    static final String[] PIECES = {
+            "a", "x1", "12", "'a'", "\"s\"", " ", "    ", "\n", "\n    ", "\n        ", "<", "<:", ">", "&", "=", "==", "!",
+            ".", ",", ":", "+", "-", "*", "(", ")", "[", "]", "?", "@", "class", "object", "interface", "def", "var", "val",
+            "if", "else", "return", "true", "false", "null", "this", "super", "is", "for", "in", "while", "break",
+            "continue", "abstract", "native",
+    };
+
+    @Test
+    void programsAreWellFormed() {
+        for (String program : PROGRAMS) {
+            ParseResult result = new MyParser().parse(program);
+            assertEquals(List.of(), result.diagnostics(), program);
+        }
+    }
+
+    @Test
+    void wellFormedProgramsGiveSameTree() {
+        for (String program : PROGRAMS) {
+            assertSameResults(program);
+        }
+        assertSameResults(String.join("\n", PROGRAMS));
+    }
+
+    @Test
+    void brokenProgramsGiveSameTree() {
+        Random random = new Random(13);
+        for (String program : PROGRAMS) {
+            for (int i = 0; i < 400; i++) {
+                assertSameResults(mutate(program, random));
+            }
+        }
+    }
+
+    @Test
+    void randomTokensGiveSameTree() {
+        Random random = new Random(17);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder text = new StringBuilder(random.nextBoolean() ? "class A\n    def f()\n        " : "");
+            int count = random.nextInt(16);
+            for (int j = 0; j < count; j++) {
+                text.append(PIECES[random.nextInt(PIECES.length)]);
+            }
+            assertSameResults(text.toString());
+        }
+    }
+
+    // Every engine, with either builder, gives what the recursive descent with post processing gives
+    private static void assertSameResults(String code) {
+        String expected = parseAndDump(
+                new MyParser(MyParser.Engine.RECURSIVE_DESCENT, MyParser.DEFAULT_MAX_RECURSION_DEPTH, false), code);
+        for (MyParser.Engine engine : MyParser.Engine.values()) {
+            for (boolean direct : new boolean[]{false, true}) {
+                String actual = parseAndDump(new MyParser(engine, MyParser.DEFAULT_MAX_RECURSION_DEPTH, direct), code);
+                assertEquals(expected, actual,
+                        () -> engine + (direct ? " direct" : "") + " on " + code.replace("\n", "\\n"));
+            }
+        }
+    }
+
+    // Deletes, repeats or inserts a few pieces of the program
+    static String mutate(String program, Random random) {
+        StringBuilder text = new StringBuilder(program);
+        int count = 1 + random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            int position = random.nextInt(text.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0 -> text.delete(position, Math.min(text.length(), position + 1 + random.nextInt(6)));
+                case 1 -> text.insert(position, text, Math.max(0, position - 8), position);
+                default -> text.insert(position, PIECES[random.nextInt(PIECES.length)]);
+            }
+        }
+        return text.toString();
+    }
+
+    // Tree, invalid ranges and diagnostics, or the exception the parse failed with
+    private static String parseAndDump(MyParser parser, String code) {
+        ParseResult result;
+        try {
+            result = parser.parse(code);
+        } catch (RuntimeException e) {
+            return "failed with " + e;
+        }
+        return dump(result);
+    }
+
+    static String dump(ParseResult result) {
+        StringBuilder out = new StringBuilder();
+        dump(result.root(), 0, out);
+        for (TextSpan range : result.invalidRanges()) {
+            out.append("invalid ").append(range).append('\n');
+        }
+        for (Diagnostic diagnostic : result.diagnostics()) {
+            out.append(diagnostic.errorCode().name()).append(' ').append(diagnostic.location()).append(' ');
+            List<String> arguments = new ArrayList<>();
+            for (Object argument : diagnostic.arguments()) {
+                arguments.add(argument instanceof Token token ? dump(token) : String.valueOf(argument));
+            }
+            out.append(arguments).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void dump(SyntaxNode node, int depth, StringBuilder out) {
+        out.append("  ".repeat(depth));
+        if (node == null) {
+            out.append("null\n");
+            return;
+        }
+        out.append(node.kind());
+        if (node.token() != null) {
+            out.append(' ').append(dump(node.token())).append('\n');
+            return;
+        }
+        out.append('\n');
+        for (int i = 0; i < node.slotCount(); i++) {
+            dump(node.slot(i), depth + 1, out);
+        }
+    }
+
+    private static String dump(Token token) {
+        return token.getClass().getSimpleName() + Arrays.toString(new int[]{
+                token.start, token.end, token.leadingTriviaLength, token.trailingTriviaLength}) + ' ' + token;
+    }
+}
@@ -0,0 +1,114 @@
+package nsu.syspro.parser;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.PROGRAMS;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.dump;
+import static nsu.syspro.parser.SyntaxTreeBuilderTest.mutate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores results, loads them back, and checks that files which do not fit the text or the parser are not loaded.
+ */
+class TreeCacheTest {
+
+    // Offsets in a file: of the version and grammar fingerprint in the header, then of the counts of the tokens
+    private static final int VERSION = 4, GRAMMAR_FINGERPRINT = 8, TOKEN_COUNTS = 28;
+
+    @Test
+    void loadsWhatWasStored() throws IOException {
+        Random random = new Random(47);
+        withCache((cache, directory) -> {
+            for (String program : PROGRAMS) {
+                assertRoundTrip(cache, program);
+                for (int i = 0; i < 20; i++) {
+                    assertRoundTrip(cache, mutate(program, random));
+                }
+            }
+        });
+    }
+
+    @Test
+    void staleFilesAreNotLoaded() throws IOException {
+        String code = PROGRAMS[0];
+        withCache((cache, directory) -> {
+            assertTrue(cache.store(code, new MyParser().parse(code)));
+            Path file = directory.resolve(String.format("%016x.tree", ParseCache.hash(code)));
+            byte[] bytes = Files.readAllBytes(file);
+
+            // A file of another text under the name of this one, as if the hashes collided
+            Path other = directory.resolve(String.format("%016x.tree", ParseCache.hash(PROGRAMS[1])));
+            Files.copy(file, other);
+            assertNull(cache.load(PROGRAMS[1]));
+            Files.delete(other);
+
+            for (int length : new int[]{0, 10, TOKEN_COUNTS, bytes.length / 2, bytes.length - 1}) {
+                Files.write(file, Arrays.copyOf(bytes, length));
+                assertNull(cache.load(code), () -> "cut to " + length + " bytes");
+            }
+            for (int offset : new int[]{VERSION, GRAMMAR_FINGERPRINT}) {
+                Files.write(file, withInt(bytes, offset, readInt(bytes, offset) + 1));
+                assertNull(cache.load(code), () -> "changed at " + offset);
+            }
+            // Corrupted counts must not be allocated for
+            for (int offset = TOKEN_COUNTS; offset < TOKEN_COUNTS + 3 * Integer.BYTES; offset += Integer.BYTES) {
+                for (int count : new int[]{Integer.MAX_VALUE, 1 << 28, -1}) {
+                    int at = offset;
+                    Files.write(file, withInt(bytes, offset, count));
+                    assertNull(cache.load(code), () -> "count " + count + " at " + at);
+                }
+            }
+
+            Files.write(file, bytes);
+            assertEquals(dump(new MyParser().parse(code)), dump(cache.load(code)));
+        });
+    }
+
+    private interface CacheUse {
+        void accept(TreeCache cache, Path directory) throws IOException;
+    }
+
+    // Gives a cache over a new directory, which is deleted afterwards
+    private static void withCache(CacheUse use) throws IOException {
+        Path directory = Files.createTempDirectory("tree-cache");
+        try {
+            use.accept(new TreeCache(new MyParser(), directory), directory);
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    // Results the cache can store come back the same, loaded directly or through parse
+    private static void assertRoundTrip(TreeCache cache, String code) throws IOException {
+        MyParseResult result = new MyParser().parse(code);
+        if (!cache.store(code, result)) return;
+        assertEquals(dump(result), dump(cache.load(code)), () -> code.replace("\n", "\\n"));
+        assertEquals(dump(result), dump(cache.parse(code)), () -> code.replace("\n", "\\n"));
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt(offset);
+    }
+
+    private static byte[] withInt(byte[] bytes, int offset, int value) {
+        byte[] copy = bytes.clone();
+        ByteBuffer.wrap(copy).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+        return copy;
+    }
+}